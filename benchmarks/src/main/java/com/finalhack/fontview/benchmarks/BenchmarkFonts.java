@@ -0,0 +1,30 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.File;
+
+/**
+ * Finds a real font to benchmark against
+ */
+final class BenchmarkFonts {
+
+    private static final String FONT_PROPERTY = "fontview.font";
+    private static final String EXAMPLE_FONT = "assets/fonts/font.ttf";
+
+    private BenchmarkFonts() {
+    }
+
+    /**
+     * @return the font named by -Dfontview.font, or the example app's font whether we're run from
+     *         the repository root or the benchmarks directory
+     */
+    static File exampleFont() {
+        String property = System.getProperty(FONT_PROPERTY);
+        if (property != null) return new File(property);
+
+        File font = new File(EXAMPLE_FONT);
+        if (!font.exists()) font = new File("..", EXAMPLE_FONT);
+        if (!font.exists()) throw new IllegalStateException("Can't find " + EXAMPLE_FONT + ", set -D" + FONT_PROPERTY);
+        return font;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.BoundedLruCache;
+import com.finalhack.fontview.SingleFlight;
+
+/**
+ * The library's caches: the byte bounded LRU behind the render cache, and the single flight table
+ * downloads are coalesced through.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CacheBenchmark {
+
+    // How many distinct styled glyphs a screen shows
+    @Param({ "100", "1000" })
+    public int entries;
+
+    // Roughly one 80dp badge at xhdpi
+    private static final int ENTRY_BYTES = 160 * 160 * 4;
+
+    private BoundedLruCache<String, byte[]> mCache;
+    private String[] mKeys;
+    // Twice as many keys as fit, so every put evicts
+    private String[] mOverflowKeys;
+    private byte[] mValue;
+    private int mIndex;
+
+    private SingleFlight<String, String> mSingleFlight;
+    private SingleFlight.Work<String> mWork;
+
+    @Setup
+    public void setup() {
+        mValue = new byte[ENTRY_BYTES];
+        mCache = new BoundedLruCache<String, byte[]>((long) entries * ENTRY_BYTES) {
+            @Override
+            protected long sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+
+        mKeys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            mKeys[i] = "glyph-" + i;
+            mCache.put(mKeys[i], mValue);
+        }
+        mOverflowKeys = new String[entries * 2];
+        for (int i = 0; i < mOverflowKeys.length; i++)
+            mOverflowKeys[i] = "overflow-" + i;
+
+        mSingleFlight = new SingleFlight<String, String>();
+        mWork = new SingleFlight.Work<String>() {
+            @Override
+            public String run() {
+                return "done";
+            }
+        };
+    }
+
+    @Benchmark
+    public byte[] lruHit() {
+        int index = mIndex++ % entries;
+        if (index < 0) index = -index;
+        return mCache.get(mKeys[index]);
+    }
+
+    @Benchmark
+    public byte[] lruMiss() {
+        return mCache.get("absent");
+    }
+
+    @Benchmark
+    public byte[] lruPutWithEviction() {
+        int index = mIndex++ % mOverflowKeys.length;
+        if (index < 0) index = -index;
+        return mCache.put(mOverflowKeys[index], mValue);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] lruHitContended() {
+        return mCache.get(mKeys[0]);
+    }
+
+    @Benchmark
+    public String singleFlightUncontended() throws Exception {
+        return mSingleFlight.execute("font", mWork);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String singleFlightContended() throws Exception {
+        return mSingleFlight.execute("font", mWork);
+    }
+
+}
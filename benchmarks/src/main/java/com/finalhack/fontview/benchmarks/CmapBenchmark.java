@@ -0,0 +1,53 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.CmapParser;
+import com.finalhack.fontview.GlyphCoverage;
+
+/**
+ * Building a font's glyph coverage from its cmap table, and checking it. Uses the example app's
+ * font, or another one given with -Dfontview.font=path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CmapBenchmark {
+
+    private File mFontFile;
+    private GlyphCoverage mCoverage;
+    private int mCodePoint;
+
+    @Setup
+    public void setup() {
+        mFontFile = BenchmarkFonts.exampleFont();
+        mCoverage = CmapParser.parse(mFontFile);
+        mCodePoint = mCoverage.nextCodePoint(0);
+    }
+
+    @Benchmark
+    public GlyphCoverage parse() {
+        return CmapParser.parse(mFontFile);
+    }
+
+    @Benchmark
+    public boolean hasGlyph() {
+        return mCoverage.hasGlyph(mCodePoint);
+    }
+
+}
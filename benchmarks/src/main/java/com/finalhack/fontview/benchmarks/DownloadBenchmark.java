@@ -0,0 +1,158 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.FontDownloader;
+import com.finalhack.fontview.FontMetadata;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The network font path, served by an in-process HTTP server so results don't depend on a real
+ * network: the raw copy loop, a full download into the store and a 304 revalidation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DownloadBenchmark {
+
+    private static final String FONT_PATH = "/font.ttf";
+    private static final String ETAG = "\"v1\"";
+
+    // A small and a large icon font
+    @Param({ "16384", "262144" })
+    public int fontBytes;
+
+    private byte[] mFont;
+    private byte[] mBuffer = new byte[FontDownloader.BUFFER_SIZE];
+    private HttpServer mServer;
+    private String mFontUrl;
+    private File mDirectory;
+    private File mDownloadTarget;
+    private File mRevalidateTarget;
+
+    @Setup
+    public void setup() throws IOException {
+        mFont = new byte[fontBytes];
+        new Random(fontBytes).nextBytes(mFont);
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext(FONT_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, mFont.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(mFont);
+                body.close();
+            }
+        });
+        mServer.start();
+        mFontUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + FONT_PATH;
+
+        mDirectory = File.createTempFile("fontview", "bench");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mDownloadTarget = new File(mDirectory, "download");
+        mRevalidateTarget = new File(mDirectory, "revalidate");
+
+        // Always ask the server, so revalidation is measured rather than skipped
+        FontDownloader.setFreshnessWindow(0);
+        new FontDownloader().download(mFontUrl, mRevalidateTarget);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files)
+            file.delete();
+        mDirectory.delete();
+        FontDownloader.setFreshnessWindow(FontDownloader.DEFAULT_FRESHNESS_WINDOW);
+    }
+
+    /**
+     * Just the copy loop, from memory to nowhere
+     */
+    @Benchmark
+    public long copyLoop() throws IOException {
+        return FontDownloader.copy(new ByteArrayInputStream(mFont), NullOutputStream.INSTANCE, mBuffer);
+    }
+
+    /**
+     * The copy loop fed by a real HTTP response
+     */
+    @Benchmark
+    public long httpCopy() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mFontUrl).openConnection();
+        InputStream inputStream = connection.getInputStream();
+        try {
+            return FontDownloader.copy(inputStream, NullOutputStream.INSTANCE, mBuffer);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * A full download: partial file, copy, length check and atomic install
+     */
+    @Benchmark
+    public FontDownloader.Result download() throws IOException {
+        mDownloadTarget.delete();
+        FontMetadata.delete(mDownloadTarget);
+        return new FontDownloader().download(mFontUrl, mDownloadTarget);
+    }
+
+    /**
+     * A conditional request that comes back 304
+     */
+    @Benchmark
+    public FontDownloader.Result revalidate() throws IOException {
+        return new FontDownloader().download(mFontUrl, mRevalidateTarget);
+    }
+
+    // Discards everything, so only the copy itself is measured
+    private static class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.EntityResolver;
+
+/**
+ * Resolving FontView characters: a recycled row asking for an entity it has seen before should
+ * be a table hit with no allocation, compared to parsing it from scratch.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EntityBenchmark {
+
+    private EntityResolver mResolver;
+    private String[] mEntities;
+    private int mIndex;
+
+    @Setup
+    public void setup() {
+        mResolver = new EntityResolver();
+        mEntities = new String[16];
+        for (int i = 0; i < mEntities.length; i++) {
+            mEntities[i] = "&#x" + Integer.toHexString(0xe000 + i) + ";";
+            mResolver.resolve(mEntities[i]);
+        }
+    }
+
+    @Benchmark
+    public String resolveInterned() {
+        return mResolver.resolve(mEntities[mIndex++ & 15]);
+    }
+
+    @Benchmark
+    public String decodeUncached() {
+        return EntityResolver.decode(mEntities[mIndex++ & 15]);
+    }
+
+}
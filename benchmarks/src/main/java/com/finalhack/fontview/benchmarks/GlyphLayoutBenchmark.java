@@ -0,0 +1,70 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.finalhack.fontview.GlyphLayout;
+import com.finalhack.fontview.SizeBuckets;
+
+/**
+ * The glyph centering math FontView runs for every draw, and the size bucketing it runs whenever a
+ * view's size changes. The primitive path and bucketing should report zero allocations per
+ * operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GlyphLayoutBenchmark {
+
+    // View edge length in pixels (40dp, 80dp and 120dp at xhdpi)
+    @Param({ "80", "160", "240" })
+    public int size;
+
+    // Typical metrics for an icon font, scaled to the view
+    private float mGlyphWidth;
+    private float mFontTop;
+    private float mFontBottom;
+    private GlyphLayout.Input mInput;
+    private SizeBuckets mSizeBuckets;
+
+    @Setup
+    public void setup() {
+        mGlyphWidth = size * 0.8f;
+        mFontTop = -size * 1.05f;
+        mFontBottom = size * 0.27f;
+        mInput = new GlyphLayout.Input(size, size, mGlyphWidth, mFontTop, mFontBottom, 0, 10);
+        mSizeBuckets = new SizeBuckets(0.1f);
+    }
+
+    @Benchmark
+    public void primitiveLayout(Blackhole blackhole) {
+        blackhole.consume(GlyphLayout.glyphX(size / 2, mGlyphWidth, 0));
+        blackhole.consume(GlyphLayout.glyphY(size / 2, mFontTop, mFontBottom, 10));
+    }
+
+    @Benchmark
+    public GlyphLayout.Result objectLayout() {
+        return GlyphLayout.layout(mInput);
+    }
+
+    @Benchmark
+    public int sizeBucket() {
+        return mSizeBuckets.bucket(size);
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.FontDownloader;
+
+/**
+ * Turning a font url into a local file name. Happens on every network font lookup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HashBenchmark {
+
+    private String mFontUrl = "https://fonts.example.com/icons/badges-v3.ttf";
+
+    @Benchmark
+    public String hashUrlToFilename() {
+        return FontDownloader.hashUrlToFilename(mFontUrl);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.FontViewMetrics;
+import com.finalhack.fontview.Histogram;
+
+/**
+ * The cost of measuring: what a draw pays for the metrics check when they're off, and for
+ * recording a timing when they're on, alone and with several threads recording at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetricsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedHistogram {
+        final Histogram mHistogram = new Histogram();
+    }
+
+    @State(Scope.Benchmark)
+    public static class FilledHistogram {
+        final Histogram mHistogram = new Histogram();
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < 100000; i++)
+                mHistogram.record(i * 37L);
+        }
+    }
+
+    @Benchmark
+    public boolean disabledCheck() {
+        return FontViewMetrics.isEnabled();
+    }
+
+    @Benchmark
+    public void record(SharedHistogram state) {
+        state.mHistogram.record(System.nanoTime() & 0xFFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended(SharedHistogram state) {
+        state.mHistogram.record(System.nanoTime() & 0xFFFFF);
+    }
+
+    @Benchmark
+    public long percentile(FilledHistogram state) {
+        return state.mHistogram.getPercentile(99);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.FontPack;
+import com.finalhack.fontview.FontPackWriter;
+import com.finalhack.fontview.GlyphCoverage;
+
+/**
+ * Choosing a font from a pack: opening the pack, finding the font by name and reading its stored
+ * coverage. The pack holds copies of the example app's font (or another one given with
+ * -Dfontview.font=path) under different names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PackBenchmark {
+
+    // A few brand icon sets, and a lot of them
+    @Param({ "8", "256" })
+    public int fontCount;
+
+    private ByteBuffer mPackBytes;
+    private FontPack mPack;
+    private String mName;
+
+    @Setup
+    public void setup() throws IOException {
+        File font = BenchmarkFonts.exampleFont();
+        FontPackWriter writer = new FontPackWriter();
+        for (int i = 0; i < fontCount; i++)
+            writer.add("brand-" + i, font);
+        ByteArrayOutputStream pack = new ByteArrayOutputStream();
+        writer.write(pack);
+
+        mPackBytes = ByteBuffer.wrap(pack.toByteArray());
+        mPack = FontPack.wrap(mPackBytes);
+        mName = "brand-" + (fontCount / 2);
+    }
+
+    @Benchmark
+    public ByteBuffer openAndFind() throws IOException {
+        FontPack pack = FontPack.wrap(mPackBytes);
+        return pack.getFont(pack.indexOf(mName));
+    }
+
+    @Benchmark
+    public GlyphCoverage coverage() {
+        return mPack.getCoverage(mPack.indexOf(mName));
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.FontStore;
+
+/**
+ * The on-disk font store: opening it at startup (reading the index) and recording a font access.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StoreBenchmark {
+
+    // How many fonts have been downloaded over time
+    @Param({ "10", "200" })
+    public int fonts;
+
+    private File mDirectory;
+    private FontStore mStore;
+    private String[] mUrls;
+    private int mIndex;
+
+    @Setup
+    public void setup() throws IOException {
+        mDirectory = File.createTempFile("fontview", "store");
+        mDirectory.delete();
+
+        mStore = new FontStore(mDirectory, Long.MAX_VALUE);
+        mUrls = new String[fonts];
+        byte[] font = new byte[1024];
+        for (int i = 0; i < fonts; i++) {
+            mUrls[i] = "https://fonts.example.com/icons/set-" + i + ".ttf";
+            FileOutputStream outputStream = new FileOutputStream(mStore.fileFor(mUrls[i]));
+            outputStream.write(font);
+            outputStream.close();
+            mStore.commit(mUrls[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) for (File file : files)
+            file.delete();
+        mDirectory.delete();
+    }
+
+    /**
+     * What app startup pays: read the index
+     */
+    @Benchmark
+    public FontStore open() {
+        return new FontStore(mDirectory, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void recordAccess() {
+        int index = mIndex++ % fonts;
+        if (index < 0) index = -index;
+        mStore.recordAccess(mUrls[index]);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.CmapParser;
+import com.finalhack.fontview.FontSubsetter;
+import com.finalhack.fontview.GlyphCoverage;
+
+/**
+ * Cutting a font down to a few of its code points. Uses the example app's font, or another one
+ * given with -Dfontview.font=path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SubsetBenchmark {
+
+    // How many of the font's code points to keep
+    private static final int KEPT_CODE_POINTS = 8;
+
+    private ByteBuffer mFont;
+    private GlyphCoverage mCodePoints;
+
+    @Setup
+    public void setup() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(BenchmarkFonts.exampleFont(), "r");
+        byte[] font = new byte[(int) file.length()];
+        try {
+            file.readFully(font);
+        } finally {
+            file.close();
+        }
+        mFont = ByteBuffer.wrap(font);
+
+        // Every other code point, as an app would pick a scattering of icons
+        GlyphCoverage coverage = CmapParser.parse(mFont);
+        GlyphCoverage.Builder builder = new GlyphCoverage.Builder();
+        int codePoint = coverage.nextCodePoint(0);
+        for (int i = 0; i < KEPT_CODE_POINTS && codePoint >= 0; i++) {
+            builder.add(codePoint);
+            int skipped = coverage.nextCodePoint(codePoint + 1);
+            codePoint = skipped < 0 ? -1 : coverage.nextCodePoint(skipped + 1);
+        }
+        mCodePoints = builder.build();
+    }
+
+    @Benchmark
+    public byte[] subset() throws IOException {
+        return FontSubsetter.subset(mFont, mCodePoints);
+    }
+
+}
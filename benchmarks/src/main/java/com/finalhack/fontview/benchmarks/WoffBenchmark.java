@@ -0,0 +1,130 @@
+package com.finalhack.fontview.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.finalhack.fontview.WoffDecoder;
+
+/**
+ * Unpacking a WOFF font into an sfnt. The WOFF is built from the example app's font (or another
+ * one given with -Dfontview.font=path) during setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WoffBenchmark {
+
+    private byte[] mWoff;
+    private ByteArrayOutputStream mSfnt;
+
+    @Setup
+    public void setup() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(BenchmarkFonts.exampleFont(), "r");
+        byte[] font = new byte[(int) file.length()];
+        try {
+            file.readFully(font);
+        } finally {
+            file.close();
+        }
+        mWoff = encode(font);
+        mSfnt = new ByteArrayOutputStream(font.length);
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        mSfnt.reset();
+        WoffDecoder.decode(new ByteArrayInputStream(mWoff), mSfnt);
+        return mSfnt.size();
+    }
+
+    /**
+     * A minimal WOFF encoder: every table deflated, no metadata or private data
+     */
+    static byte[] encode(byte[] font) throws IOException {
+        int tableCount = readShort(font, 4);
+        byte[][] compressed = new byte[tableCount][];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        for (int i = 0; i < tableCount; i++) {
+            int record = 12 + i * 16;
+            byte[] deflated = deflate(deflater, font, readInt(font, record + 8), readInt(font, record + 12));
+            // Tables that don't shrink are stored as is
+            compressed[i] = deflated.length < readInt(font, record + 12) ? deflated : null;
+        }
+        deflater.end();
+
+        ByteArrayOutputStream tables = new ByteArrayOutputStream();
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        DataOutputStream directoryOutput = new DataOutputStream(directory);
+        int offset = 44 + tableCount * 20;
+        for (int i = 0; i < tableCount; i++) {
+            int record = 12 + i * 16;
+            int length = readInt(font, record + 12);
+            byte[] data = compressed[i];
+            int dataLength = data != null ? data.length : length;
+            directoryOutput.writeInt(readInt(font, record));
+            directoryOutput.writeInt(offset + tables.size());
+            directoryOutput.writeInt(dataLength);
+            directoryOutput.writeInt(length);
+            directoryOutput.writeInt(readInt(font, record + 4));
+            if (data != null) tables.write(data);
+            else tables.write(font, readInt(font, record + 8), length);
+            while (tables.size() % 4 != 0)
+                tables.write(0);
+        }
+
+        ByteArrayOutputStream woff = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(woff);
+        output.writeInt(0x774F4646);
+        output.writeInt(readInt(font, 0));
+        output.writeInt(offset + tables.size());
+        output.writeShort(tableCount);
+        output.writeShort(0);
+        output.writeInt(font.length);
+        output.writeShort(1);
+        output.writeShort(0);
+        for (int i = 0; i < 5; i++)
+            output.writeInt(0);
+        directory.writeTo(output);
+        tables.writeTo(output);
+        return woff.toByteArray();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data, int offset, int length) {
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished())
+            output.write(buffer, 0, deflater.deflate(buffer));
+        return output.toByteArray();
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | data[offset + 1] & 0xFF;
+    }
+
+}
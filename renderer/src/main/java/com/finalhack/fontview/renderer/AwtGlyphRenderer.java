@@ -0,0 +1,208 @@
+package com.finalhack.fontview.renderer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.LinearGradientPaint;
+import java.awt.MultipleGradientPaint;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+
+import com.finalhack.fontview.EntityResolver;
+import com.finalhack.fontview.GlyphCoverage;
+import com.finalhack.fontview.GlyphLayout;
+
+/**
+ * Draws a badge the way FontView.draw() / GlyphRenderer.draw() does on Android, with java.awt in
+ * place of Canvas and Paint. The shapes, colors, split halves, gradients and glyph centering all
+ * follow the same rules, and the glyph position comes from the same {@link GlyphLayout} math, so
+ * a badge lines up with what the app shows. Glyph rasterization is java.awt's own, so edges can
+ * differ from Android's by a pixel's antialiasing.
+ * <p>
+ * Holds no state, so any number of threads can render at once.
+ */
+public final class AwtGlyphRenderer {
+
+    private static final int HALF_CIRCLE_SWEEP_DISTANCE = 180;
+    private static final int HALF_CIRCLE_TOP_START = 180;
+    private static final int HALF_CIRCLE_BOTTOM_START = 0;
+    private static final int TOP = 0;
+    private static final int LEFT = 0;
+
+    // Use a divisibility offset because if the radius is odd, or rounded odd, there will be a
+    // non-drawn line between the two circle halves.
+    private static final int DIVISIBILITY_OFFSET = 2;
+
+    // Android measures text with hinted, whole pixel advances unless asked otherwise
+    private static final FontRenderContext MEASURE_CONTEXT = new FontRenderContext(null, true, false);
+
+    private AwtGlyphRenderer() {
+    }
+
+    /**
+     * Draw a badge into a new image of its size
+     *
+     * @param spec what to draw
+     * @param font the font to draw with
+     * @return the badge, transparent wherever nothing was drawn
+     */
+    public static BufferedImage render(BadgeSpec spec, BadgeFont font) {
+        BufferedImage image = new BufferedImage(spec.width, spec.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            draw(graphics, spec, font);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draw a badge into its width and height starting at the origin
+     *
+     * @param graphics
+     * @param spec what to draw
+     * @param font the font to draw with
+     */
+    public static void draw(Graphics2D graphics, BadgeSpec spec, BadgeFont font) {
+        int width = spec.width;
+        int height = spec.height;
+        int midX = width / 2;
+        int midY = height / 2;
+
+        Integer backgroundColor = spec.backgroundColor;
+        Integer outerColor = spec.outerColor;
+        Integer bottomHalfColor = spec.bottomHalfColor;
+        boolean hasBackgroundGradient = spec.hasBackgroundGradient && backgroundColor != null && bottomHalfColor != null;
+
+        // Unset colors draw the way a fresh Paint would
+        Color background = color(backgroundColor);
+        Color bottomHalf = color(bottomHalfColor);
+
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        // For squares...
+        if (spec.shape == BadgeSpec.Shape.SQUARE) {
+            // Is the background a solid color?
+            if (bottomHalfColor == null) {
+                // Is there a background color?
+                if (backgroundColor != null) fill(graphics, background, LEFT, TOP, width, height);
+            }
+            // If the background is not a solid color...
+            else {
+                // Is it a gradient?
+                if (hasBackgroundGradient) {
+                    graphics.setPaint(gradient(midX, height, background, bottomHalf));
+                    graphics.fillRect(LEFT, TOP, width, height);
+                }
+                // Is it split (non-gradient)?
+                else {
+                    fill(graphics, background, LEFT, TOP, width, midY);
+                    fill(graphics, bottomHalf, LEFT, midY, width, height - midY);
+                }
+            }
+        }
+
+        // Do the same for circles...
+        if (spec.shape == BadgeSpec.Shape.CIRCLE) {
+            // Is there a color outside the circle?
+            if (outerColor != null) fill(graphics, color(outerColor), LEFT, TOP, width, height);
+            Ellipse2D circle = new Ellipse2D.Float(midX - midX, midY - midX, midX * 2, midX * 2);
+            // Is the background a solid color?
+            if (bottomHalfColor == null) {
+                // Is there a background color?
+                if (backgroundColor != null) {
+                    graphics.setPaint(background);
+                    graphics.fill(circle);
+                }
+                // If the background is not a solid color...
+            } else {
+                // Is it a gradient?
+                if (hasBackgroundGradient) {
+                    // Android's gradient paint isn't antialiased
+                    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+                    graphics.setPaint(gradient(midX, height, background, bottomHalf));
+                    graphics.fill(circle);
+                    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                }
+                // Is it split(non-gradient)?
+                else {
+                    // Draw the circle's top half
+                    graphics.setPaint(background);
+                    graphics.fill(arc(width, height + DIVISIBILITY_OFFSET, HALF_CIRCLE_TOP_START));
+
+                    // Draw the circle's bottom half
+                    graphics.setPaint(bottomHalf);
+                    graphics.fill(arc(width, height, HALF_CIRCLE_BOTTOM_START));
+                }
+            }
+        }
+
+        // Draw the glyph
+        String character = resolveDrawCharacter(spec, font.getCoverage());
+        if (character.length() == 0) return;
+
+        float textSize = (int) (spec.height * spec.fontSizeMultiplier);
+        Font awtFont = font.deriveFont(textSize);
+        float glyphWidth = (float) awtFont.getStringBounds(character, MEASURE_CONTEXT).getWidth();
+
+        // Center the glyph, allowing for a user specified x or y offset to fine tune how they want
+        // the glyphs displayed
+        int x = GlyphLayout.glyphX(midX, glyphWidth, spec.xOffset);
+        int y = GlyphLayout.glyphY(midY, font.getTop(textSize), font.getBottom(textSize), spec.yOffset);
+
+        graphics.setFont(awtFont);
+        graphics.setPaint(color(spec.foregroundColor));
+        graphics.drawString(character, x, y);
+    }
+
+    /**
+     * Pick what to draw the way FontView does: the character, the fallback if the font doesn't
+     * have the character, or nothing if it has neither
+     */
+    private static String resolveDrawCharacter(BadgeSpec spec, GlyphCoverage coverage) {
+        String character = EntityResolver.decode(spec.character);
+        if (character.length() == 0 || coverage == null) return character;
+        if (coverage.hasGlyph(character.codePointAt(0))) return character;
+
+        String fallbackCharacter = spec.fallbackCharacter;
+        if (fallbackCharacter != null && fallbackCharacter.length() > 0 && coverage.hasGlyph(fallbackCharacter.codePointAt(0)))
+            return fallbackCharacter;
+        // Draw the shapes without a glyph rather than a missing glyph box
+        return "";
+    }
+
+    private static void fill(Graphics2D graphics, Color color, int x, int y, int width, int height) {
+        graphics.setPaint(color);
+        graphics.fillRect(x, y, width, height);
+    }
+
+    /**
+     * A half circle pie in the oval from the origin to width, height. Android measures arcs
+     * clockwise and java.awt counterclockwise, so the angles are flipped.
+     */
+    private static Arc2D arc(int width, int height, int androidStart) {
+        return new Arc2D.Float(LEFT, TOP, width, height, -androidStart, -HALF_CIRCLE_SWEEP_DISTANCE, Arc2D.PIE);
+    }
+
+    /**
+     * The same repeating top to bottom gradient as Android's LinearGradient
+     */
+    private static LinearGradientPaint gradient(int midX, int height, Color top, Color bottom) {
+        return new LinearGradientPaint(new Point2D.Float(midX, TOP), new Point2D.Float(midX, height), new float[] { 0, 1 },
+                new Color[] { top, bottom }, MultipleGradientPaint.CycleMethod.REPEAT);
+    }
+
+    /**
+     * @param argb may be null, which is black like a fresh Paint
+     */
+    private static Color color(Integer argb) {
+        return argb != null ? new Color(argb, true) : Color.BLACK;
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.finalhack.fontview.renderer;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.finalhack.fontview.CmapParser;
+import com.finalhack.fontview.FontDownloader;
+import com.finalhack.fontview.FontPack;
+import com.finalhack.fontview.GlyphCoverage;
+import com.finalhack.fontview.SingleFlight;
+import com.finalhack.fontview.WoffDecoder;
+
+/**
+ * A font loaded for java.awt, with what Android would know about it: the code points it covers
+ * and the top and bottom font metrics that FontView centers glyphs with.
+ * <p>
+ * Fonts are loaded once per source and shared by every thread; a font requested by several badges
+ * at once is only read once.
+ */
+public class BadgeFont {
+
+    private static final int TAG_HEAD = 0x68656164; // 'head'
+    private static final int TAG_TTC = 0x74746366; // 'ttcf'
+    private static final int WOFF_SIGNATURE = 0x774F4646; // 'wOFF'
+
+    private static final int TABLE_DIRECTORY_OFFSET = 12;
+    private static final int TABLE_RECORD_SIZE = 16;
+
+    private static final ConcurrentHashMap<String, BadgeFont> FONTS = new ConcurrentHashMap<String, BadgeFont>();
+    private static final SingleFlight<String, BadgeFont> LOADS = new SingleFlight<String, BadgeFont>();
+
+    // Downloaded fonts are kept here between runs, and only fetched again once stale
+    private static File sDownloadDirectory = new File(System.getProperty("java.io.tmpdir"), "fontview-renderer");
+
+    private final Font mFont;
+    private final GlyphCoverage mCoverage;
+    // The font's bounding box, in ems. Multiplied by a text size these are Paint's top and bottom.
+    private final float mTop;
+    private final float mBottom;
+
+    private BadgeFont(Font font, GlyphCoverage coverage, float top, float bottom) {
+        mFont = font;
+        mCoverage = coverage;
+        mTop = top;
+        mBottom = bottom;
+    }
+
+    /**
+     * Set where fonts given by url are downloaded to
+     *
+     * @param downloadDirectory
+     */
+    public static void setDownloadDirectory(File downloadDirectory) {
+        sDownloadDirectory = downloadDirectory;
+    }
+
+    /**
+     * Get a font, loading it the first time it's asked for
+     *
+     * @param source a font file path, an http(s) url, or a pack path followed by #fontName
+     * @return the font
+     * @throws IOException if the font can't be read or java.awt doesn't understand it
+     */
+    public static BadgeFont get(final String source) throws IOException {
+        BadgeFont font = FONTS.get(source);
+        if (font != null) return font;
+
+        try {
+            return LOADS.execute(source, new SingleFlight.Work<BadgeFont>() {
+                @Override
+                public BadgeFont run() throws Exception {
+                    // Someone may have finished loading it between our look and now
+                    BadgeFont loaded = FONTS.get(source);
+                    if (loaded == null) {
+                        loaded = load(source);
+                        FONTS.put(source, loaded);
+                    }
+                    return loaded;
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Couldn't load " + source, e);
+        }
+    }
+
+    private static BadgeFont load(String source) throws IOException, FontFormatException {
+        byte[] sfnt;
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            // The downloader unpacks WOFF fonts as it installs them
+            if (!sDownloadDirectory.isDirectory() && !sDownloadDirectory.mkdirs())
+                throw new IOException("Can't create " + sDownloadDirectory);
+            File target = new File(sDownloadDirectory, FontDownloader.hashUrlToFilename(source));
+            new FontDownloader().download(source, target);
+            sfnt = readFont(new FileInputStream(target));
+        } else {
+            int hash = source.lastIndexOf('#');
+            if (hash > 0) {
+                FontPack pack = FontPack.open(new File(source.substring(0, hash)));
+                String name = source.substring(hash + 1);
+                int index = pack.indexOf(name);
+                if (index < 0) throw new IOException("No font " + name + " in " + source.substring(0, hash));
+                ByteBuffer font = pack.getFont(index);
+                byte[] bytes = new byte[font.remaining()];
+                font.get(bytes);
+                sfnt = readFont(new ByteArrayInputStream(bytes));
+            } else {
+                sfnt = readFont(new FileInputStream(source));
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(sfnt);
+        GlyphCoverage coverage = CmapParser.parse(buffer);
+        int head = findHead(buffer);
+        if (head < 0) throw new IOException(source + " has no head table");
+        float unitsPerEm = buffer.getShort(head + 18) & 0xFFFF;
+        float yMin = buffer.getShort(head + 38);
+        float yMax = buffer.getShort(head + 42);
+
+        Font font = Font.createFont(Font.TRUETYPE_FONT, new ByteArrayInputStream(sfnt));
+        // Above the baseline is negative, as on Android
+        return new BadgeFont(font, coverage, -yMax / unitsPerEm, -yMin / unitsPerEm);
+    }
+
+    /**
+     * Read a whole font, unpacking it if it's WOFF. Closes the stream.
+     */
+    private static byte[] readFont(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream font = new ByteArrayOutputStream();
+            FontDownloader.copy(inputStream, font, new byte[FontDownloader.BUFFER_SIZE]);
+            byte[] bytes = font.toByteArray();
+            if (bytes.length < 4 || ByteBuffer.wrap(bytes).getInt(0) != WOFF_SIGNATURE) return bytes;
+
+            ByteArrayOutputStream sfnt = new ByteArrayOutputStream();
+            WoffDecoder.decode(new ByteArrayInputStream(bytes), sfnt);
+            return sfnt.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return the offset of the head table, using the first font of a collection, or -1
+     */
+    private static int findHead(ByteBuffer buffer) {
+        try {
+            int fontOffset = buffer.getInt(0) == TAG_TTC ? buffer.getInt(12) : 0;
+            int tableCount = buffer.getShort(fontOffset + 4) & 0xFFFF;
+            for (int i = 0; i < tableCount; i++) {
+                int record = fontOffset + TABLE_DIRECTORY_OFFSET + i * TABLE_RECORD_SIZE;
+                if (buffer.getInt(record) == TAG_HEAD) return buffer.getInt(record + 8);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Not a font we understand
+        }
+        return -1;
+    }
+
+    /**
+     * @param textSize in pixels
+     * @return the font at that size
+     */
+    public Font deriveFont(float textSize) {
+        return mFont.deriveFont(textSize);
+    }
+
+    /**
+     * @return the code points the font has glyphs for, or null if that's unknown
+     */
+    public GlyphCoverage getCoverage() {
+        return mCoverage;
+    }
+
+    /**
+     * @param textSize in pixels
+     * @return Paint.FontMetrics.top at that size: negative, above the baseline
+     */
+    public float getTop(float textSize) {
+        return mTop * textSize;
+    }
+
+    /**
+     * @param textSize in pixels
+     * @return Paint.FontMetrics.bottom at that size: positive, below the baseline
+     */
+    public float getBottom(float textSize) {
+        return mBottom * textSize;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.finalhack.fontview.renderer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the list of badges to render. One badge per line, as space separated key=value pairs.
+ * Blank lines and lines starting with # are skipped. For example:
+ *
+ * <pre>
+ * font=fonts/icons.ttf character=&amp;#xe000; shape=CIRCLE size=96 foreground=#ffffff background=#d32f2f name=alert
+ * font=brands.pack#social character=A size=48x32 background=#3b5998 bottom=#263d6b gradient=true sheet=social name=f
+ * </pre>
+ *
+ * Keys: font, character, fallback, shape (SQUARE or CIRCLE), size (one number, or WxH), foreground,
+ * background, outer, bottom, gradient, x, y, scale, name and sheet. Colors are #rrggbb or
+ * #aarrggbb. A font path that isn't absolute is relative to the manifest.
+ */
+public final class BadgeManifest {
+
+    private BadgeManifest() {
+    }
+
+    /**
+     * @param manifestFile
+     * @return the badges, in manifest order
+     * @throws IOException if the file can't be read or a line doesn't make sense
+     */
+    public static List<BadgeSpec> read(File manifestFile) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(manifestFile), "UTF-8");
+        try {
+            return read(reader, manifestFile.getAbsoluteFile().getParentFile());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @param reader
+     * @param baseDirectory what relative font paths are relative to
+     * @return the badges, in manifest order
+     * @throws IOException if the manifest can't be read or a line doesn't make sense
+     */
+    public static List<BadgeSpec> read(Reader reader, File baseDirectory) throws IOException {
+        List<BadgeSpec> specs = new ArrayList<BadgeSpec>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) continue;
+            try {
+                specs.add(parse(line, baseDirectory, lineNumber));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Manifest line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return specs;
+    }
+
+    private static BadgeSpec parse(String line, File baseDirectory, int lineNumber) {
+        BadgeSpec spec = new BadgeSpec();
+        for (String field : line.split("\\s+")) {
+            int equals = field.indexOf('=');
+            if (equals <= 0) throw new IllegalArgumentException("Expected key=value, got " + field);
+            String key = field.substring(0, equals);
+            String value = field.substring(equals + 1);
+
+            if ("font".equals(key)) spec.font = resolveFont(value, baseDirectory);
+            else if ("character".equals(key)) spec.character = value;
+            else if ("fallback".equals(key)) spec.fallbackCharacter = value;
+            else if ("shape".equals(key)) spec.shape = BadgeSpec.Shape.valueOf(value.toUpperCase());
+            else if ("size".equals(key)) parseSize(spec, value);
+            else if ("foreground".equals(key)) spec.foregroundColor = parseColor(value);
+            else if ("background".equals(key)) spec.backgroundColor = parseColor(value);
+            else if ("outer".equals(key)) spec.outerColor = parseColor(value);
+            else if ("bottom".equals(key)) spec.bottomHalfColor = parseColor(value);
+            else if ("gradient".equals(key)) spec.hasBackgroundGradient = Boolean.parseBoolean(value);
+            else if ("x".equals(key)) spec.xOffset = Integer.parseInt(value);
+            else if ("y".equals(key)) spec.yOffset = Integer.parseInt(value);
+            else if ("scale".equals(key)) spec.fontSizeMultiplier = Double.parseDouble(value);
+            else if ("name".equals(key)) spec.name = value;
+            else if ("sheet".equals(key)) spec.sheet = value;
+            else throw new IllegalArgumentException("Unknown key " + key);
+        }
+
+        if (spec.font == null) throw new IllegalArgumentException("No font");
+        if (spec.character == null) throw new IllegalArgumentException("No character");
+        if (spec.width <= 0 || spec.height <= 0) throw new IllegalArgumentException("No size");
+        // Unnamed badges are named after their line
+        if (spec.name == null) spec.name = "badge-" + lineNumber;
+        return spec;
+    }
+
+    private static String resolveFont(String font, File baseDirectory) {
+        if (font.startsWith("http://") || font.startsWith("https://")) return font;
+        File file = new File(font);
+        if (file.isAbsolute() || baseDirectory == null) return font;
+        return new File(baseDirectory, font).getPath();
+    }
+
+    private static void parseSize(BadgeSpec spec, String size) {
+        int x = size.indexOf('x');
+        if (x < 0) {
+            spec.width = spec.height = Integer.parseInt(size);
+        } else {
+            spec.width = Integer.parseInt(size.substring(0, x));
+            spec.height = Integer.parseInt(size.substring(x + 1));
+        }
+    }
+
+    /**
+     * @param color #rrggbb or #aarrggbb, like Android's Color.parseColor
+     */
+    private static int parseColor(String color) {
+        if (!color.startsWith("#") || (color.length() != 7 && color.length() != 9))
+            throw new IllegalArgumentException("Bad color " + color);
+        long value = Long.parseLong(color.substring(1), 16);
+        // Without an alpha, colors are opaque
+        if (color.length() == 7) value |= 0xFF000000L;
+        return (int) value;
+    }
+
+}
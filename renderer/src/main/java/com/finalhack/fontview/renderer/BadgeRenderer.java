@@ -0,0 +1,146 @@
+package com.finalhack.fontview.renderer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders a manifest of badges on a plain JVM, e.g. on a server generating the same glyph images
+ * the app shows for email or the web. Badges are rendered in parallel, one per core; each font is
+ * loaded once and shared. Badges without a sheet are written as name.png, the rest are packed
+ * into a {@link SpriteSheet} per sheet name.
+ * <p>
+ * Run with: java -jar renderer.jar manifest outputDirectory [threads]
+ */
+public class BadgeRenderer {
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Render on every core
+     */
+    public BadgeRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads how many badges to render at once
+     */
+    public BadgeRenderer(int threads) {
+        mExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java -jar renderer.jar manifest outputDirectory [threads]");
+            System.exit(2);
+        }
+        // No display is needed, or wanted on a server
+        System.setProperty("java.awt.headless", "true");
+
+        List<BadgeSpec> specs = BadgeManifest.read(new File(args[0]));
+        BadgeRenderer renderer = args.length == 3 ? new BadgeRenderer(Integer.parseInt(args[2])) : new BadgeRenderer();
+        List<String> failures;
+        long startTime = System.currentTimeMillis();
+        try {
+            failures = renderer.render(specs, new File(args[1]));
+        } finally {
+            renderer.shutdown();
+        }
+
+        for (String failure : failures)
+            System.err.println(failure);
+        System.out.println("Rendered " + (specs.size() - failures.size()) + " of " + specs.size() + " badges in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        if (!failures.isEmpty()) System.exit(1);
+    }
+
+    /**
+     * Render badges and write them out. A badge that fails doesn't stop the others.
+     *
+     * @param specs
+     * @param outputDirectory created if need be
+     * @return a description of each badge or sheet that couldn't be rendered. Empty on success.
+     * @throws IOException if the output directory can't be created
+     * @throws InterruptedException
+     */
+    public List<String> render(List<BadgeSpec> specs, final File outputDirectory) throws IOException, InterruptedException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) throw new IOException("Can't create " + outputDirectory);
+
+        // Render everything in parallel. Badges on their own are written by the worker that
+        // rendered them; sheet badges are kept for packing.
+        List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(specs.size());
+        for (final BadgeSpec spec : specs) {
+            futures.add(mExecutor.submit(new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() throws Exception {
+                    BufferedImage image = AwtGlyphRenderer.render(spec, BadgeFont.get(spec.font));
+                    if (spec.sheet != null) return image;
+                    ImageIO.write(image, "png", new File(outputDirectory, spec.name + ".png"));
+                    return null;
+                }
+            }));
+        }
+
+        List<String> failures = new ArrayList<String>();
+        Map<String, SpriteSheet> sheets = new LinkedHashMap<String, SpriteSheet>();
+        for (int i = 0; i < specs.size(); i++) {
+            BadgeSpec spec = specs.get(i);
+            BufferedImage image;
+            try {
+                image = futures.get(i).get();
+            } catch (ExecutionException e) {
+                failures.add(spec + ": " + e.getCause());
+                continue;
+            }
+            if (spec.sheet == null) continue;
+
+            SpriteSheet sheet = sheets.get(spec.sheet);
+            if (sheet == null) {
+                sheet = new SpriteSheet(spec.sheet);
+                sheets.put(spec.sheet, sheet);
+            }
+            sheet.add(spec.name, image);
+        }
+
+        // Sheets are independent, so they're packed and encoded in parallel too
+        Map<String, Future<Void>> writes = new LinkedHashMap<String, Future<Void>>();
+        for (Map.Entry<String, SpriteSheet> entry : sheets.entrySet()) {
+            final SpriteSheet sheet = entry.getValue();
+            writes.put(entry.getKey(), mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    sheet.write(outputDirectory);
+                    return null;
+                }
+            }));
+        }
+        for (Map.Entry<String, Future<Void>> write : writes.entrySet()) {
+            try {
+                write.getValue().get();
+            } catch (ExecutionException e) {
+                failures.add("Sheet " + write.getKey() + ": " + e.getCause());
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Stop the render threads once queued work is done
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.finalhack.fontview.renderer;
+
+/**
+ * One badge to render: a glyph styled the way a FontView would be set up to show it. The fields
+ * mirror FontView's decorators, with unset colors left null exactly as a freshly reset view has
+ * them.
+ */
+public class BadgeSpec {
+
+    /**
+     * The shapes FontView draws behind a glyph. Matches FontView.ImageType.
+     */
+    public enum Shape {
+        SQUARE, CIRCLE
+    }
+
+    // Where the font comes from: a path, an http(s) url, or pack#fontName
+    public String font;
+    // As given to FontView: plain text or an HTML entity
+    public String character;
+    // Drawn instead when the font has no glyph for character. May be null.
+    public String fallbackCharacter;
+    public Shape shape = Shape.SQUARE;
+    public int width;
+    public int height;
+
+    public Integer foregroundColor;
+    public Integer backgroundColor;
+    public Integer outerColor;
+    public Integer bottomHalfColor;
+    public boolean hasBackgroundGradient;
+    public int xOffset;
+    public int yOffset;
+    public double fontSizeMultiplier = 1.0;
+
+    // The PNG's name, or the badge's name within its sprite sheet
+    public String name;
+    // Render into this sprite sheet instead of a PNG of its own. May be null.
+    public String sheet;
+
+    @Override
+    public String toString() {
+        return "BadgeSpec[" + name + ": " + font + " " + character + " " + shape + " " + width + "x" + height + "]";
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.finalhack.fontview.renderer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs rendered badges into one image, next to a text index of where each one went. Badges are
+ * placed tallest first on shelves, left to right, a new shelf starting whenever the current one is
+ * full.
+ * <p>
+ * The index has one line per badge: name, x, y, width and height, separated by spaces.
+ */
+public class SpriteSheet {
+
+    // Sheets grow downwards past this width, unless a single badge is wider
+    public static final int MAX_WIDTH = 2048;
+
+    // A badge and where it was placed
+    private static class Sprite {
+        final String name;
+        final BufferedImage image;
+        int x;
+        int y;
+
+        Sprite(String name, BufferedImage image) {
+            this.name = name;
+            this.image = image;
+        }
+    }
+
+    private static final Comparator<Sprite> TALLEST_FIRST = new Comparator<Sprite>() {
+        @Override
+        public int compare(Sprite a, Sprite b) {
+            return b.image.getHeight() - a.image.getHeight();
+        }
+    };
+
+    private final String mName;
+    private final List<Sprite> mSprites = new ArrayList<Sprite>();
+
+    /**
+     * @param name the sheet's file names, without extension
+     */
+    public SpriteSheet(String name) {
+        mName = name;
+    }
+
+    /**
+     * @param name what the index calls the badge
+     * @param image
+     */
+    public void add(String name, BufferedImage image) {
+        mSprites.add(new Sprite(name, image));
+    }
+
+    /**
+     * Pack the badges and write name.png and name.txt
+     *
+     * @param outputDirectory
+     * @throws IOException
+     */
+    public void write(File outputDirectory) throws IOException {
+        List<Sprite> sprites = new ArrayList<Sprite>(mSprites);
+        // Stable, so equally tall badges stay in manifest order
+        Collections.sort(sprites, TALLEST_FIRST);
+
+        int maxWidth = MAX_WIDTH;
+        for (Sprite sprite : sprites)
+            maxWidth = Math.max(maxWidth, sprite.image.getWidth());
+
+        int sheetWidth = 0;
+        int shelfX = 0;
+        int shelfY = 0;
+        int shelfHeight = 0;
+        for (Sprite sprite : sprites) {
+            int width = sprite.image.getWidth();
+            if (shelfX + width > maxWidth) {
+                shelfY += shelfHeight;
+                shelfX = 0;
+                shelfHeight = 0;
+            }
+            sprite.x = shelfX;
+            sprite.y = shelfY;
+            shelfX += width;
+            // The first badge on a shelf is its tallest
+            shelfHeight = Math.max(shelfHeight, sprite.image.getHeight());
+            sheetWidth = Math.max(sheetWidth, shelfX);
+        }
+        int sheetHeight = shelfY + shelfHeight;
+
+        BufferedImage sheet = new BufferedImage(Math.max(sheetWidth, 1), Math.max(sheetHeight, 1), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = sheet.createGraphics();
+        try {
+            for (Sprite sprite : sprites)
+                graphics.drawImage(sprite.image, sprite.x, sprite.y, null);
+        } finally {
+            graphics.dispose();
+        }
+        ImageIO.write(sheet, "png", new File(outputDirectory, mName + ".png"));
+
+        Writer index = new OutputStreamWriter(new FileOutputStream(new File(outputDirectory, mName + ".txt")), "UTF-8");
+        try {
+            for (Sprite sprite : mSprites)
+                index.write(sprite.name + " " + sprite.x + " " + sprite.y + " " + sprite.image.getWidth() + " " + sprite.image.getHeight() + "\n");
+        } finally {
+            index.close();
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.finalhack.fontview;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small least recently used cache bounded by a size budget rather than an entry count. Each
+ * entry's cost comes from {@link #sizeOf(Object, Object)}, so subclasses can budget in bytes.
+ * <p>
+ * This mirrors android.util.LruCache, which isn't available on all of the API levels we support.
+ * Hit, miss and eviction counts are tracked so a budget can be tuned from real usage.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BoundedLruCache<K, V> {
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<K, V> mMap = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    private long mSize;
+    private long mMaxSize;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxSize the budget, in the units returned by sizeOf
+     */
+    public BoundedLruCache(long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Look up a value, marking it as most recently used
+     *
+     * @param key
+     * @return the value, or null on a miss
+     */
+    public final synchronized V get(K key) {
+        V value = mMap.get(key);
+        if (value != null) mHitCount++;
+        else mMissCount++;
+        return value;
+    }
+
+    /**
+     * Store a value, evicting least recently used entries if we go over budget. A value larger
+     * than the whole budget is not stored, but still replaces whatever was stored under key, so
+     * the old value isn't served in its place.
+     *
+     * @param key
+     * @param value
+     * @return the value previously stored under key, if any
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException("key and value may not be null");
+
+        V previous;
+        boolean stored;
+        synchronized (this) {
+            long size = safeSizeOf(key, value);
+            stored = size <= mMaxSize;
+            if (stored) {
+                mPutCount++;
+                mSize += size;
+                previous = mMap.put(key, value);
+            } else {
+                previous = mMap.remove(key);
+            }
+            if (previous != null) mSize -= safeSizeOf(key, previous);
+        }
+
+        if (previous != null) entryRemoved(false, key, previous);
+        if (stored) trimToSize(mMaxSize);
+        return previous;
+    }
+
+    /**
+     * Drop a value
+     *
+     * @param key
+     * @return the value that was stored, if any
+     */
+    public final V remove(K key) {
+        V previous;
+        synchronized (this) {
+            previous = mMap.remove(key);
+            if (previous != null) mSize -= safeSizeOf(key, previous);
+        }
+
+        if (previous != null) entryRemoved(false, key, previous);
+        return previous;
+    }
+
+    /**
+     * @return a copy of the keys currently stored, least recently used first. Listing them doesn't
+     *         count as using them.
+     */
+    public final synchronized List<K> keys() {
+        return new ArrayList<K>(mMap.keySet());
+    }
+
+    /**
+     * Drop everything
+     */
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Change the budget, evicting entries if the new budget is smaller
+     *
+     * @param maxSize
+     */
+    public final void resize(long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        synchronized (this) {
+            mMaxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Evict least recently used entries until we're at or under the given size. Eviction
+     * callbacks run outside of the lock.
+     *
+     * @param maxSize
+     */
+    private void trimToSize(long maxSize) {
+        while (true) {
+            K key;
+            V value;
+            synchronized (this) {
+                if (mSize <= maxSize || mMap.isEmpty()) break;
+
+                Iterator<Map.Entry<K, V>> iterator = mMap.entrySet().iterator();
+                Map.Entry<K, V> eldest = iterator.next();
+                key = eldest.getKey();
+                value = eldest.getValue();
+                iterator.remove();
+                mSize -= safeSizeOf(key, value);
+                mEvictionCount++;
+            }
+
+            entryRemoved(true, key, value);
+        }
+    }
+
+    private long safeSizeOf(K key, V value) {
+        long size = sizeOf(key, value);
+        if (size < 0) throw new IllegalStateException("Negative size: " + key + "=" + value);
+        return size;
+    }
+
+    /**
+     * The cost of an entry against the budget. Defaults to 1, making this a count bounded cache.
+     *
+     * @param key
+     * @param value
+     * @return cost
+     */
+    protected long sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called after an entry leaves the cache, outside of any lock
+     *
+     * @param evicted true if the entry was dropped to make room, false if it was removed or
+     *            replaced
+     * @param key
+     * @param oldValue
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue) {
+    }
+
+    public final synchronized long size() {
+        return mSize;
+    }
+
+    public final synchronized long maxSize() {
+        return mMaxSize;
+    }
+
+    public final synchronized int entryCount() {
+        return mMap.size();
+    }
+
+    public final synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized long missCount() {
+        return mMissCount;
+    }
+
+    public final synchronized long putCount() {
+        return mPutCount;
+    }
+
+    public final synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public final synchronized String toString() {
+        long accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (int) (100 * mHitCount / accesses) : 0;
+        return getClass().getSimpleName() + "[size=" + mSize + ",maxSize=" + mMaxSize + ",entries=" + mMap.size() + ",hits="
+                + mHitCount + ",misses=" + mMissCount + ",evictions=" + mEvictionCount + ",hitRate=" + hitPercent + "%]";
+    }
+
+}
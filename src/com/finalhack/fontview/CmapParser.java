@@ -0,0 +1,254 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads which code points a TrueType/OpenType font has glyphs for, straight from its cmap table.
+ * Font files are memory mapped read-only, so only the pages holding the table directory and the
+ * cmap are ever touched; the glyph outlines are never read.
+ * <p>
+ * Unicode subtables in formats 0, 4, 6 and 12 are understood. A font we can't make sense of
+ * yields null, which callers treat as "coverage unknown".
+ */
+public final class CmapParser {
+
+    private static final int TAG_CMAP = 0x636D6170; // 'cmap'
+    private static final int TAG_TTC = 0x74746366; // 'ttcf'
+
+    private static final int PLATFORM_UNICODE = 0;
+    private static final int PLATFORM_WINDOWS = 3;
+
+    private static final int TABLE_DIRECTORY_OFFSET = 12;
+    private static final int TABLE_RECORD_SIZE = 16;
+
+    private CmapParser() {
+    }
+
+    /**
+     * Map a font file and read its coverage
+     *
+     * @param fontFile
+     * @return the coverage, or null if the font couldn't be understood
+     */
+    public static GlyphCoverage parse(File fontFile) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(fontFile);
+            FileChannel channel = inputStream.getChannel();
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            FontDownloader.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Read the coverage of a font held in a buffer. The buffer's position and limit mark out the
+     * font; neither is changed.
+     *
+     * @param font
+     * @return the coverage, or null if the font couldn't be understood
+     */
+    public static GlyphCoverage parse(ByteBuffer font) {
+        // Work on our own view so absolute offsets start at the font and the caller's buffer is
+        // left alone
+        ByteBuffer buffer = font.slice();
+        try {
+            int fontOffset = 0;
+            // Font collections: use the first font
+            if (buffer.getInt(0) == TAG_TTC) fontOffset = buffer.getInt(12);
+
+            int cmapOffset = findTable(buffer, fontOffset, TAG_CMAP);
+            if (cmapOffset < 0) return null;
+
+            GlyphCoverage.Builder builder = new GlyphCoverage.Builder();
+            boolean foundSubtable = false;
+
+            int subtableCount = buffer.getShort(cmapOffset + 2) & 0xFFFF;
+            for (int i = 0; i < subtableCount; i++) {
+                int record = cmapOffset + 4 + i * 8;
+                int platformId = buffer.getShort(record) & 0xFFFF;
+                if (platformId != PLATFORM_UNICODE && platformId != PLATFORM_WINDOWS) continue;
+
+                // Fonts often carry the same mapping in more than one subtable. Adding a code point
+                // twice is harmless, so just take the union.
+                int subtable = cmapOffset + buffer.getInt(record + 4);
+                if (readSubtable(buffer, subtable, builder)) foundSubtable = true;
+            }
+
+            return foundSubtable ? builder.build() : null;
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated or corrupt font
+            return null;
+        }
+    }
+
+    /**
+     * @return the absolute offset of a table, or -1 if the font doesn't have it
+     */
+    /* package */static int findTable(ByteBuffer buffer, int fontOffset, int tag) {
+        int tableCount = buffer.getShort(fontOffset + 4) & 0xFFFF;
+        for (int i = 0; i < tableCount; i++) {
+            int record = fontOffset + TABLE_DIRECTORY_OFFSET + i * TABLE_RECORD_SIZE;
+            if (buffer.getInt(record) == tag) return buffer.getInt(record + 8);
+        }
+        return -1;
+    }
+
+    /**
+     * Find the glyph a code point is drawn with
+     *
+     * @param buffer
+     * @param cmapOffset the absolute offset of the cmap table
+     * @param codePoint
+     * @return the glyph id, or 0 (the missing glyph) if no Unicode subtable maps it
+     */
+    /* package */static int glyphFor(ByteBuffer buffer, int cmapOffset, int codePoint) {
+        int subtableCount = buffer.getShort(cmapOffset + 2) & 0xFFFF;
+        for (int i = 0; i < subtableCount; i++) {
+            int record = cmapOffset + 4 + i * 8;
+            int platformId = buffer.getShort(record) & 0xFFFF;
+            if (platformId != PLATFORM_UNICODE && platformId != PLATFORM_WINDOWS) continue;
+
+            // Same union as parse(): the first subtable that knows the code point wins
+            int glyph = lookupGlyph(buffer, cmapOffset + buffer.getInt(record + 4), codePoint);
+            if (glyph != 0) return glyph;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the glyph a single subtable maps codePoint to, or 0
+     */
+    private static int lookupGlyph(ByteBuffer buffer, int offset, int codePoint) {
+        int format = buffer.getShort(offset) & 0xFFFF;
+        switch (format) {
+            case 0:
+                return codePoint < 256 ? buffer.get(offset + 6 + codePoint) & 0xFF : 0;
+            case 4: {
+                if (codePoint > 0xFFFF) return 0;
+                int segmentCount = (buffer.getShort(offset + 6) & 0xFFFF) / 2;
+                int endCodes = offset + 14;
+                int startCodes = endCodes + segmentCount * 2 + 2;
+                int idDeltas = startCodes + segmentCount * 2;
+                int idRangeOffsets = idDeltas + segmentCount * 2;
+                for (int segment = 0; segment < segmentCount; segment++) {
+                    // Segments are sorted by end code
+                    if (codePoint > (buffer.getShort(endCodes + segment * 2) & 0xFFFF)) continue;
+                    int startCode = buffer.getShort(startCodes + segment * 2) & 0xFFFF;
+                    if (codePoint < startCode) return 0;
+                    int idDelta = buffer.getShort(idDeltas + segment * 2);
+                    int idRangeOffsetPosition = idRangeOffsets + segment * 2;
+                    int idRangeOffset = buffer.getShort(idRangeOffsetPosition) & 0xFFFF;
+                    if (idRangeOffset == 0) return (codePoint + idDelta) & 0xFFFF;
+                    int glyph = buffer.getShort(idRangeOffsetPosition + idRangeOffset + (codePoint - startCode) * 2) & 0xFFFF;
+                    return glyph == 0 ? 0 : (glyph + idDelta) & 0xFFFF;
+                }
+                return 0;
+            }
+            case 6: {
+                int firstCode = buffer.getShort(offset + 6) & 0xFFFF;
+                int entryCount = buffer.getShort(offset + 8) & 0xFFFF;
+                int index = codePoint - firstCode;
+                return index >= 0 && index < entryCount ? buffer.getShort(offset + 10 + index * 2) & 0xFFFF : 0;
+            }
+            case 12: {
+                int groupCount = buffer.getInt(offset + 12);
+                for (int i = 0; i < groupCount; i++) {
+                    int group = offset + 16 + i * 12;
+                    int startCode = buffer.getInt(group);
+                    if (codePoint >= startCode && codePoint <= buffer.getInt(group + 4))
+                        return buffer.getInt(group + 8) + codePoint - startCode;
+                }
+                return 0;
+            }
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Add every code point a subtable maps to a real glyph (anything but glyph 0)
+     *
+     * @return false if the subtable's format isn't one we read
+     */
+    private static boolean readSubtable(ByteBuffer buffer, int offset, GlyphCoverage.Builder builder) {
+        int format = buffer.getShort(offset) & 0xFFFF;
+        switch (format) {
+            case 0:
+                // 256 single byte glyph ids
+                for (int code = 0; code < 256; code++)
+                    if (buffer.get(offset + 6 + code) != 0) builder.add(code);
+                return true;
+            case 4:
+                readFormat4(buffer, offset, builder);
+                return true;
+            case 6: {
+                // A dense run of 16 bit glyph ids
+                int firstCode = buffer.getShort(offset + 6) & 0xFFFF;
+                int entryCount = buffer.getShort(offset + 8) & 0xFFFF;
+                for (int i = 0; i < entryCount; i++)
+                    if (buffer.getShort(offset + 10 + i * 2) != 0) builder.add(firstCode + i);
+                return true;
+            }
+            case 12: {
+                // Groups of sequential code points mapped to sequential glyphs
+                int groupCount = buffer.getInt(offset + 12);
+                for (int i = 0; i < groupCount; i++) {
+                    int group = offset + 16 + i * 12;
+                    int startCode = buffer.getInt(group);
+                    int endCode = buffer.getInt(group + 4);
+                    int startGlyph = buffer.getInt(group + 8);
+                    // Only the first code point of a group can land on glyph 0
+                    builder.addRange(startGlyph == 0 ? startCode + 1 : startCode, endCode);
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Format 4: segments of 16 bit code points, each mapped by a delta or through a glyph id array
+     */
+    private static void readFormat4(ByteBuffer buffer, int offset, GlyphCoverage.Builder builder) {
+        int segmentCount = (buffer.getShort(offset + 6) & 0xFFFF) / 2;
+        int endCodes = offset + 14;
+        // Skip the reserved pad after the end codes
+        int startCodes = endCodes + segmentCount * 2 + 2;
+        int idDeltas = startCodes + segmentCount * 2;
+        int idRangeOffsets = idDeltas + segmentCount * 2;
+
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int endCode = buffer.getShort(endCodes + segment * 2) & 0xFFFF;
+            int startCode = buffer.getShort(startCodes + segment * 2) & 0xFFFF;
+            int idDelta = buffer.getShort(idDeltas + segment * 2);
+            int idRangeOffsetPosition = idRangeOffsets + segment * 2;
+            int idRangeOffset = buffer.getShort(idRangeOffsetPosition) & 0xFFFF;
+
+            // The last segment is a 0xFFFF terminator, not a real character
+            if (startCode == 0xFFFF) continue;
+
+            for (int code = startCode; code <= endCode; code++) {
+                int glyph;
+                if (idRangeOffset == 0) {
+                    glyph = (code + idDelta) & 0xFFFF;
+                } else {
+                    // The offset is relative to where it's stored
+                    int glyphPosition = idRangeOffsetPosition + idRangeOffset + (code - startCode) * 2;
+                    glyph = buffer.getShort(glyphPosition) & 0xFFFF;
+                    if (glyph != 0) glyph = (glyph + idDelta) & 0xFFFF;
+                }
+                if (glyph != 0) builder.add(code);
+            }
+        }
+    }
+
+}
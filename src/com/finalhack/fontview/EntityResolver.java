@@ -0,0 +1,217 @@
+package com.finalhack.fontview;
+
+/**
+ * Turns the character strings FontView is given into what should actually be drawn. Strings can
+ * be plain characters ('A', accented letters, surrogate pairs) or HTML entities, numeric ('&amp;#xe000;',
+ * '&amp;#57344;') or named ('&amp;amp;').
+ * <p>
+ * Each distinct string is only parsed once. Results are interned in an open addressed table keyed
+ * by the string's hash, so recycled views showing the same entity get the same decoded string
+ * back without parsing or allocating.
+ */
+public final class EntityResolver {
+
+    private static final int INITIAL_CAPACITY = 256;
+    // Keep the table from growing without bound if an app feeds us arbitrary text
+    private static final int MAX_ENTRIES = 4096;
+
+    // A few common named entities. Icon fonts are normally addressed numerically.
+    private static final String[] NAMED_ENTITIES = { "amp", "lt", "gt", "quot", "apos", "nbsp", "copy", "reg", "trade", "hellip",
+            "mdash", "ndash", "bull", "middot", "deg", "euro", "pound", "yen", "cent", "sect", "para", "times", "divide",
+            "plusmn", "laquo", "raquo", "larr", "uarr", "rarr", "darr", "hearts", "check" };
+    private static final int[] NAMED_CODE_POINTS = { '&', '<', '>', '"', '\'', 0xA0, 0xA9, 0xAE, 0x2122, 0x2026, 0x2014, 0x2013,
+            0x2022, 0xB7, 0xB0, 0x20AC, 0xA3, 0xA5, 0xA2, 0xA7, 0xB6, 0xD7, 0xF7, 0xB1, 0xAB, 0xBB, 0x2190, 0x2191, 0x2192,
+            0x2193, 0x2665, 0x2713 };
+
+    private static final EntityResolver INSTANCE = new EntityResolver();
+
+    // Parallel arrays: hash, source string, decoded string and first code point per slot
+    private int[] mHashes = new int[INITIAL_CAPACITY];
+    private String[] mSources = new String[INITIAL_CAPACITY];
+    private String[] mResolved = new String[INITIAL_CAPACITY];
+    private int[] mCodePoints = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * @return the resolver shared by all FontViews
+     */
+    public static EntityResolver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param character as given to FontView
+     * @return the text to draw, with any entities decoded
+     */
+    public synchronized String resolve(String character) {
+        if (character == null) return null;
+        int slot = slotFor(character);
+        return mResolved[slot];
+    }
+
+    /**
+     * @param character as given to FontView
+     * @return the first code point the string stands for, or -1 for an empty string
+     */
+    public synchronized int resolveCodePoint(String character) {
+        if (character == null) return -1;
+        int slot = slotFor(character);
+        return mCodePoints[slot];
+    }
+
+    /**
+     * Find the slot holding character, parsing and adding it if this is the first time we've seen
+     * it
+     */
+    private int slotFor(String character) {
+        int hash = character.hashCode();
+        int mask = mSources.length - 1;
+        int slot = mix(hash) & mask;
+
+        while (mSources[slot] != null) {
+            if (mHashes[slot] == hash && mSources[slot].equals(character)) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        // First time seeing this string
+        if (mSize >= MAX_ENTRIES) {
+            clear();
+            return slotFor(character);
+        }
+        if ((mSize + 1) * 2 > mSources.length) {
+            grow();
+            return slotFor(character);
+        }
+
+        String resolved = decode(character);
+        mHashes[slot] = hash;
+        mSources[slot] = character;
+        mResolved[slot] = resolved;
+        mCodePoints[slot] = resolved.length() == 0 ? -1 : resolved.codePointAt(0);
+        mSize++;
+        return slot;
+    }
+
+    /**
+     * Decode every entity in a string. Text that isn't a well formed entity is left alone, the way
+     * a browser would.
+     *
+     * @param text
+     * @return the decoded text
+     */
+    public static String decode(String text) {
+        int ampersand = text.indexOf('&');
+        // Nothing to decode. Plain characters and surrogate pairs are used as is.
+        if (ampersand < 0) return text;
+
+        StringBuilder decoded = new StringBuilder(text.length());
+        int position = 0;
+        while (ampersand >= 0) {
+            int semicolon = text.indexOf(';', ampersand + 1);
+            if (semicolon < 0) break;
+
+            int codePoint = parseEntity(text, ampersand + 1, semicolon);
+            if (codePoint >= 0) {
+                decoded.append(text, position, ampersand);
+                decoded.appendCodePoint(codePoint);
+                position = semicolon + 1;
+            }
+            ampersand = text.indexOf('&', codePoint >= 0 ? position : ampersand + 1);
+        }
+        decoded.append(text, position, text.length());
+        return decoded.toString();
+    }
+
+    /**
+     * @return the code point for the entity body between start and end (exclusive), or -1
+     */
+    private static int parseEntity(String text, int start, int end) {
+        if (start >= end) return -1;
+
+        // Numeric: &#1234; or &#x4d2;
+        if (text.charAt(start) == '#') {
+            int radix = 10;
+            int digits = start + 1;
+            if (digits < end && (text.charAt(digits) == 'x' || text.charAt(digits) == 'X')) {
+                radix = 16;
+                digits++;
+            }
+            if (digits >= end) return -1;
+
+            int codePoint = 0;
+            for (int i = digits; i < end; i++) {
+                int digit = Character.digit(text.charAt(i), radix);
+                if (digit < 0) return -1;
+                codePoint = codePoint * radix + digit;
+                if (codePoint > GlyphCoverage.MAX_CODE_POINT) return -1;
+            }
+            // Lone surrogates can't be drawn
+            if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) return -1;
+            return codePoint;
+        }
+
+        // Named: &amp;
+        int length = end - start;
+        for (int i = 0; i < NAMED_ENTITIES.length; i++) {
+            String name = NAMED_ENTITIES[i];
+            if (name.length() == length && text.regionMatches(start, name, 0, length)) return NAMED_CODE_POINTS[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Forget everything we've resolved
+     */
+    public synchronized void clear() {
+        int capacity = mSources.length;
+        mHashes = new int[capacity];
+        mSources = new String[capacity];
+        mResolved = new String[capacity];
+        mCodePoints = new int[capacity];
+        mSize = 0;
+    }
+
+    /**
+     * @return how many distinct strings have been resolved
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Double the table, keeping everything already resolved
+     */
+    private void grow() {
+        int[] oldHashes = mHashes;
+        String[] oldSources = mSources;
+        String[] oldResolved = mResolved;
+        int[] oldCodePoints = mCodePoints;
+
+        int capacity = oldSources.length * 2;
+        mHashes = new int[capacity];
+        mSources = new String[capacity];
+        mResolved = new String[capacity];
+        mCodePoints = new int[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSources.length; i++) {
+            if (oldSources[i] == null) continue;
+            int slot = mix(oldHashes[i]) & mask;
+            while (mSources[slot] != null)
+                slot = (slot + 1) & mask;
+            mHashes[slot] = oldHashes[i];
+            mSources[slot] = oldSources[i];
+            mResolved[slot] = oldResolved[i];
+            mCodePoints[slot] = oldCodePoints[i];
+        }
+    }
+
+    // Spread String.hashCode's low bits, which cluster for short strings
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+
+}
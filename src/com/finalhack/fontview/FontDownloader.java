@@ -0,0 +1,467 @@
+package com.finalhack.fontview;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pulls a font file from a network location and saves it locally. Saved fonts are revalidated
+ * with the server's ETag and Last-Modified validators, so an unchanged font costs a single 304
+ * response instead of a full download.
+ * <p>
+ * Full downloads ask for gzip transfer encoding and are unzipped as they're written. WOFF fonts
+ * are unpacked into plain sfnt files once downloaded, so servers can send the smaller formats
+ * without any conversion step.
+ * <p>
+ * Uses plain java.net so it can run (and be measured) outside of Android.
+ */
+public class FontDownloader {
+
+    public static final int BUFFER_SIZE = 10000;
+
+    // By default, trust a saved font for a day before asking the server about it again
+    public static final long DEFAULT_FRESHNESS_WINDOW = 24 * 60 * 60 * 1000L;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static final String WEAK_ETAG_PREFIX = "W/";
+
+    private static final String PARTIAL_EXTENSION = ".part";
+    private static final String DECODED_EXTENSION = ".sfnt";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // How many times to resume an interrupted download before giving up
+    private static final int MAX_ATTEMPTS = 4;
+
+    private static volatile long sFreshnessWindow = DEFAULT_FRESHNESS_WINDOW;
+
+    /**
+     * How a download request was satisfied
+     */
+    public enum Status {
+        // The saved file was recent enough that we didn't contact the server
+        FRESH,
+        // The server confirmed the saved file is current
+        NOT_MODIFIED,
+        // A new copy of the file was downloaded
+        DOWNLOADED
+    }
+
+    /**
+     * The outcome of a download request
+     */
+    public static class Result {
+        public final Status status;
+        // Bytes received over the network, before unzipping
+        public final long bytes;
+        public final long durationMillis;
+
+        public Result(Status status, long bytes, long durationMillis) {
+            this.status = status;
+            this.bytes = bytes;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /**
+     * Change how long a saved font is trusted before it's revalidated with the server. Zero
+     * revalidates on every request.
+     *
+     * @param freshnessWindowMillis
+     */
+    public static void setFreshnessWindow(long freshnessWindowMillis) {
+        if (freshnessWindowMillis < 0) throw new IllegalArgumentException("freshnessWindow may not be negative");
+        sFreshnessWindow = freshnessWindowMillis;
+    }
+
+    /**
+     * @return how long a saved font is trusted before it's revalidated, in milliseconds
+     */
+    public static long getFreshnessWindow() {
+        return sFreshnessWindow;
+    }
+
+    /**
+     * Make sure target holds a current copy of the font at fontUrl, downloading only if we have to.
+     * New copies are written to a partial file first, resumed with range requests if the
+     * connection drops, and only moved into place once complete. A WOFF font is saved as the sfnt
+     * it unpacks to.
+     *
+     * @param fontUrl
+     * @param target
+     * @return what we had to do
+     * @throws IOException if the font couldn't be retrieved
+     */
+    public Result download(String fontUrl, File target) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        FontMetadata metadata = target.exists() ? FontMetadata.load(target) : null;
+
+        // Skip the network entirely while the file is fresh
+        if (metadata != null && metadata.isFresh(startTime, sFreshnessWindow)) {
+            return new Result(Status.FRESH, 0, System.currentTimeMillis() - startTime);
+        }
+
+        File partial = partialFileFor(target);
+        long totalBytes = 0;
+        IOException lastError = null;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                Transfer transfer = transfer(fontUrl, target, metadata, partial);
+                totalBytes += transfer.bytes;
+
+                // Nothing changed. Note when we checked and keep the file we have.
+                if (transfer.notModified) {
+                    discardPartial(partial);
+                    metadata.fetchedAt = System.currentTimeMillis();
+                    metadata.save(target);
+                    return new Result(Status.NOT_MODIFIED, totalBytes, System.currentTimeMillis() - startTime);
+                }
+
+                // The connection ended early. Resume from where we are.
+                if (transfer.expectedLength >= 0 && partial.length() < transfer.expectedLength) {
+                    lastError = new IOException("Connection closed at " + partial.length() + " of " + transfer.expectedLength
+                            + " bytes for " + fontUrl);
+                    continue;
+                }
+
+                // More than we were promised. Something went wrong, so start over.
+                if (transfer.expectedLength >= 0 && partial.length() > transfer.expectedLength) {
+                    discardPartial(partial);
+                    lastError = new IOException("Received " + partial.length() + " of " + transfer.expectedLength + " bytes for "
+                            + fontUrl);
+                    continue;
+                }
+
+                install(partial, target, transfer.validators);
+                return new Result(Status.DOWNLOADED, totalBytes, System.currentTimeMillis() - startTime);
+            } catch (IOException e) {
+                // Keep what we've written so the next attempt can resume from it
+                lastError = e;
+            }
+        }
+
+        throw lastError;
+    }
+
+    // What a single request/response got us
+    private static class Transfer {
+        boolean notModified;
+        long bytes;
+        long expectedLength = -1;
+        FontMetadata validators;
+    }
+
+    /**
+     * Make one request, appending whatever the server sends to the partial file
+     */
+    private Transfer transfer(String fontUrl, File target, FontMetadata metadata, File partial) throws IOException {
+        Transfer transfer = new Transfer();
+
+        // We can only resume if we know the partial data came from the same version of the file
+        FontMetadata partialValidators = partial.exists() ? FontMetadata.load(partial) : null;
+        String ifRange = partialValidators != null ? ifRangeFor(partialValidators) : null;
+        long resumeFrom = ifRange != null ? partial.length() : 0;
+        if (resumeFrom == 0) discardPartial(partial);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(fontUrl).openConnection();
+        try {
+            // Byte ranges only make sense against the raw bytes, so resumes aren't compressed.
+            // Anything else may come gzipped, which we unzip ourselves as it's written.
+            connection.setRequestProperty(HEADER_ACCEPT_ENCODING, resumeFrom > 0 ? ENCODING_IDENTITY : ENCODING_GZIP);
+
+            // Ask the server to only send the file if it changed
+            if (metadata != null) {
+                if (metadata.etag != null) connection.setRequestProperty(HEADER_IF_NONE_MATCH, metadata.etag);
+                if (metadata.lastModified > 0) connection.setIfModifiedSince(metadata.lastModified);
+            }
+
+            // Ask for just the bytes we're missing, but only if the file hasn't changed since we
+            // got the first part. Otherwise the server sends the whole new file.
+            if (resumeFrom > 0) {
+                connection.setRequestProperty(HEADER_RANGE, "bytes=" + resumeFrom + "-");
+                connection.setRequestProperty(HEADER_IF_RANGE, ifRange);
+            }
+
+            int responseCode = connection.getResponseCode();
+            boolean gzip = ENCODING_GZIP.equalsIgnoreCase(connection.getHeaderField(HEADER_CONTENT_ENCODING));
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && metadata != null) {
+                transfer.notModified = true;
+                return transfer;
+            }
+
+            boolean append;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0) {
+                // Make sure the server picked up where we left off
+                long[] range = parseContentRange(connection.getHeaderField(HEADER_CONTENT_RANGE));
+                if (range == null || range[0] != resumeFrom) {
+                    discardPartial(partial);
+                    throw new IOException("Unexpected range " + connection.getHeaderField(HEADER_CONTENT_RANGE) + " for " + fontUrl);
+                }
+                append = true;
+                transfer.expectedLength = range[1];
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // A full response. Either we didn't ask for a range or the file changed.
+                append = false;
+                // A gzipped response's length is of the zipped bytes, not the file. The gzip
+                // trailer tells us whether we got everything instead.
+                if (!gzip) transfer.expectedLength = parseLong(connection.getHeaderField(HEADER_CONTENT_LENGTH));
+            } else {
+                // e.g. 416 when our partial file no longer lines up with the server's file
+                discardPartial(partial);
+                throw new IOException("Unexpected response " + responseCode + " for " + fontUrl);
+            }
+
+            // Remember which version of the file this partial data belongs to, before writing any
+            // of it, so an interrupted transfer can be resumed
+            FontMetadata validators = append ? partialValidators : new FontMetadata();
+            if (!append) {
+                validators.etag = connection.getHeaderField(HEADER_ETAG);
+                validators.lastModified = connection.getHeaderFieldDate(HEADER_LAST_MODIFIED, 0);
+                // Unzipped data doesn't line up with the server's byte ranges, so an interrupted
+                // gzipped transfer starts over instead of resuming
+                if (!gzip) validators.save(partial);
+            }
+            transfer.validators = validators;
+
+            CountingInputStream networkStream = new CountingInputStream(connection.getInputStream());
+            try {
+                InputStream inputStream = gzip ? new GZIPInputStream(networkStream, BUFFER_SIZE) : networkStream;
+                OutputStream outputStream = new FileOutputStream(partial, append);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    copy(inputStream, outputStream, buffer);
+                } finally {
+                    outputStream.close();
+                }
+                // The gzip stream stops at its trailer, which can leave the end of the body (e.g.
+                // the last chunk) unread. A connection is only reused once its body is used up.
+                if (gzip) {
+                    while (networkStream.read(buffer) >= 0) {
+                        // Discard
+                    }
+                }
+            } finally {
+                networkStream.close();
+            }
+            transfer.bytes = networkStream.count;
+
+            return transfer;
+        } catch (IOException e) {
+            // Only drop the connection on failure. Fully read connections go back to the
+            // keep-alive pool for the next font.
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Move a complete partial file into place and remember its validators for next time
+     */
+    private void install(File partial, File target, FontMetadata validators) throws IOException {
+        File complete = partial;
+
+        // Typeface only loads sfnt fonts, so unpack WOFF now rather than on every load
+        if (WoffDecoder.isWoff(partial)) {
+            complete = new File(target.getParentFile(), target.getName() + DECODED_EXTENSION);
+            try {
+                WoffDecoder.decode(partial, complete);
+            } catch (IOException e) {
+                // Most likely damaged in transit. Start over rather than resume.
+                complete.delete();
+                discardPartial(partial);
+                throw e;
+            }
+            discardPartial(partial);
+        }
+
+        // A rename within a directory is atomic, so readers only ever see a complete font
+        if (!complete.renameTo(target)) throw new IOException("Unable to move " + complete + " to " + target);
+        FontMetadata.delete(partial);
+
+        FontMetadata metadata = new FontMetadata();
+        metadata.etag = validators.etag;
+        metadata.lastModified = validators.lastModified;
+        metadata.fetchedAt = System.currentTimeMillis();
+        metadata.length = target.length();
+        metadata.save(target);
+    }
+
+    /**
+     * @param target
+     * @return where an in progress download of target is written
+     */
+    public static File partialFileFor(File target) {
+        return new File(target.getParentFile(), target.getName() + PARTIAL_EXTENSION);
+    }
+
+    private static void discardPartial(File partial) {
+        partial.delete();
+        FontMetadata.delete(partial);
+    }
+
+    /**
+     * Parse a "bytes start-end/total" Content-Range header
+     *
+     * @param contentRange
+     * @return {start, total}, with total -1 if the server didn't know it, or null if unparseable
+     */
+    /* package */static long[] parseContentRange(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return null;
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        if (dash < 0 || slash < dash) return null;
+        try {
+            long start = Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+            String total = contentRange.substring(slash + 1).trim();
+            return new long[] { start, "*".equals(total) ? -1 : Long.parseLong(total) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Pick the validator to send with If-Range. Weak entity tags aren't allowed there.
+     *
+     * @param validators
+     * @return the header value, or null if we have nothing usable and can't safely resume
+     */
+    private static String ifRangeFor(FontMetadata validators) {
+        if (validators.etag != null && !validators.etag.startsWith(WEAK_ETAG_PREFIX)) return validators.etag;
+        if (validators.lastModified > 0) return formatHttpDate(validators.lastModified);
+        return null;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String formatHttpDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * Create a local file name for a font pulled from a network location. Each url gets its own
+     * name, allowing multiple fonts at once. Names are always 32 hex characters; every byte keeps
+     * both of its digits so different urls can't collapse onto the same name.
+     *
+     * @param stringToHash
+     * @return
+     */
+    public static String hashUrlToFilename(String stringToHash) {
+        final String HASH_TYPE = "MD5";
+        try {
+            // Create byte hash
+            MessageDigest messageDigest = MessageDigest.getInstance(HASH_TYPE);
+            messageDigest.update(stringToHash.getBytes("UTF-8"));
+            byte digestBytes[] = messageDigest.digest();
+
+            // Rewrite the byte hash as a fixed width hex hash
+            char[] hexChars = new char[digestBytes.length * 2];
+            for (int i = 0; i < digestBytes.length; i++) {
+                hexChars[i * 2] = HEX_DIGITS[(digestBytes[i] >> 4) & 0xF];
+                hexChars[i * 2 + 1] = HEX_DIGITS[digestBytes[i] & 0xF];
+            }
+
+            return new String(hexChars);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Stream all data from one place to another
+     *
+     * @param inputStream
+     * @param outputStream
+     * @param buffer scratch space, reused across calls by the caller if it likes
+     * @return the number of bytes copied
+     * @throws IOException
+     */
+    public static long copy(InputStream inputStream, OutputStream outputStream, byte[] buffer) throws IOException {
+        long totalBytes = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            // Make sure we limit the buffer bytes we're writing, to those we just read
+            outputStream.write(buffer, 0, read);
+            totalBytes += read;
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Counts the bytes read through it, so zipped transfers can report what actually crossed the
+     * network
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) count++;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /* package */static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do
+        }
+    }
+
+}
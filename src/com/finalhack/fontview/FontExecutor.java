@@ -0,0 +1,248 @@
+package com.finalhack.fontview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import android.os.Process;
+
+/**
+ * The library's own worker pool for font work. Tasks for views on screen run ahead of prefetches,
+ * and tasks for views that went away can be cancelled while still queued. The queue is bounded;
+ * when it fills up, the least important waiting task is dropped.
+ * <p>
+ * Worker threads are started as work arrives. Executors created with a keep alive let a worker go
+ * once it has been idle that long, so one that's no longer used doesn't hold on to its threads.
+ * <p>
+ * Font work used to share the app wide serial AsyncTask executor, queuing behind every other
+ * AsyncTask in the app.
+ */
+public class FontExecutor {
+
+    public static final int DEFAULT_THREAD_COUNT = 3;
+    public static final int DEFAULT_MAX_QUEUED = 64;
+
+    private static final String THREAD_NAME = "FontView-worker-";
+
+    private static final FontExecutor INSTANCE = new FontExecutor(DEFAULT_THREAD_COUNT, DEFAULT_MAX_QUEUED);
+
+    private final PriorityQueue<FontTask> mQueue = new PriorityQueue<FontTask>();
+    private final int mThreadCount;
+    private final int mMaxQueued;
+    private final long mKeepAliveMillis;
+    // Guarded by mQueue
+    private boolean mShutdown;
+    private int mLiveWorkers;
+    private int mIdleWorkers;
+    private int mNextWorkerId;
+
+    /**
+     * Standard constructor. Worker threads are started as work arrives, and live as long as the
+     * executor isn't shut down.
+     *
+     * @param threadCount how many tasks may run at once
+     * @param maxQueued how many tasks may wait at once
+     */
+    public FontExecutor(int threadCount, int maxQueued) {
+        this(threadCount, maxQueued, 0);
+    }
+
+    /**
+     * Constructor for an executor whose idle workers go away
+     *
+     * @param threadCount how many tasks may run at once
+     * @param maxQueued how many tasks may wait at once
+     * @param keepAliveMillis how long a worker waits for work before it stops, or 0 to wait forever
+     */
+    public FontExecutor(int threadCount, int maxQueued, long keepAliveMillis) {
+        if (threadCount < 1 || maxQueued < 1) throw new IllegalArgumentException("threadCount and maxQueued must be at least 1");
+        if (keepAliveMillis < 0) throw new IllegalArgumentException("keepAliveMillis can't be negative");
+        mThreadCount = threadCount;
+        mMaxQueued = maxQueued;
+        mKeepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * @return the executor shared by all FontViews
+     */
+    public static FontExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue a task to run
+     *
+     * @param task
+     * @param priority see FontTask.PRIORITY_*
+     */
+    public void execute(FontTask task, int priority) {
+        FontTask dropped = null;
+        synchronized (mQueue) {
+            // Nothing would ever run it
+            if (mShutdown) {
+                dropped = task;
+            } else {
+                task.setExecutor(this);
+                task.setPriority(priority);
+                mQueue.add(task);
+
+                // Too much waiting work. Drop whatever matters least, which may be the new task.
+                if (mQueue.size() > mMaxQueued) dropped = removeLeastImportant();
+
+                // More work than idle workers to pick it up. Start another, if we're allowed one.
+                if (mQueue.size() > mIdleWorkers && mLiveWorkers < mThreadCount) startWorker();
+                mQueue.notify();
+            }
+        }
+        if (dropped != null) dropped.cancel();
+    }
+
+    /**
+     * Change the priority of a task that is still waiting, e.g. when its view scrolls back on
+     * screen
+     *
+     * @param task
+     * @param priority
+     * @return true if the task was still waiting
+     */
+    public boolean reprioritize(FontTask task, int priority) {
+        synchronized (mQueue) {
+            if (!mQueue.remove(task)) return false;
+            task.setPriority(priority);
+            mQueue.add(task);
+            return true;
+        }
+    }
+
+    /**
+     * Remove a task that is still waiting. Called when a task is cancelled.
+     *
+     * @param task
+     */
+    /* package */void remove(FontTask task) {
+        synchronized (mQueue) {
+            mQueue.remove(task);
+        }
+    }
+
+    /**
+     * Cancel every waiting task
+     */
+    public void cancelAll() {
+        List<FontTask> waiting;
+        synchronized (mQueue) {
+            waiting = new ArrayList<FontTask>(mQueue);
+            mQueue.clear();
+        }
+        for (FontTask task : waiting)
+            task.cancel();
+    }
+
+    /**
+     * Cancel every waiting task and stop the worker threads once they finish what they're running.
+     * Only for executors created separately; the shared one lives as long as the app.
+     */
+    public void shutdown() {
+        if (this == INSTANCE) throw new IllegalStateException("The shared executor can't be shut down");
+        synchronized (mQueue) {
+            mShutdown = true;
+            // A worker waiting for work stops now. One running a task is left to finish it, since
+            // views may be waiting on it, and stops when it next asks for work.
+            mQueue.notifyAll();
+        }
+        cancelAll();
+    }
+
+    /**
+     * @return how many tasks are waiting to run
+     */
+    public int getQueuedCount() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * @return how many worker threads are running, busy or idle
+     */
+    public int getLiveWorkerCount() {
+        synchronized (mQueue) {
+            return mLiveWorkers;
+        }
+    }
+
+    /**
+     * Start a worker thread. Called holding mQueue.
+     */
+    private void startWorker() {
+        mLiveWorkers++;
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                while (true) {
+                    FontTask task;
+                    try {
+                        task = take();
+                    } catch (InterruptedException e) {
+                        synchronized (mQueue) {
+                            mLiveWorkers--;
+                        }
+                        return;
+                    }
+                    // Shut down, or idle for too long
+                    if (task == null) return;
+                    task.run();
+                }
+            }
+        }, THREAD_NAME + mNextWorkerId++);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return the next task to run, or null once the executor is shut down or this worker has been
+     *         idle for longer than the keep alive. A worker given null must stop.
+     * @throws InterruptedException
+     */
+    private FontTask take() throws InterruptedException {
+        synchronized (mQueue) {
+            mIdleWorkers++;
+            try {
+                long deadline = System.currentTimeMillis() + mKeepAliveMillis;
+                while (mQueue.isEmpty() && !mShutdown) {
+                    if (mKeepAliveMillis == 0) {
+                        mQueue.wait();
+                        continue;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) break;
+                    mQueue.wait(remaining);
+                }
+            } finally {
+                mIdleWorkers--;
+            }
+            if (mShutdown || mQueue.isEmpty()) {
+                mLiveWorkers--;
+                return null;
+            }
+            return mQueue.poll();
+        }
+    }
+
+    /**
+     * Find and remove the task that would run last, skipping tasks someone is waiting on. The
+     * queue is small, so a scan is fine.
+     *
+     * @return the removed task, or null if every task is waited on, in which case the queue is
+     *         allowed to grow past its bound
+     */
+    private FontTask removeLeastImportant() {
+        FontTask leastImportant = null;
+        for (FontTask task : mQueue)
+            if (task.isDroppable() && (leastImportant == null || task.compareTo(leastImportant) > 0)) leastImportant = task;
+        if (leastImportant != null) mQueue.remove(leastImportant);
+        return leastImportant;
+    }
+
+}
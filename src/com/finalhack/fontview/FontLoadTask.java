@@ -0,0 +1,82 @@
+package com.finalhack.fontview;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decodes a font on a font worker when decoding first means making a file (cutting the font down
+ * to a subset, or copying it out of a pack), which is too slow for the main thread. Views that
+ * asked for the font draw nothing until it's ready, and are then redrawn.
+ */
+/* package */class FontLoadTask extends FontTask {
+
+    // Loads in progress, by registry key, so each font is only loaded once however many views ask
+    private static final ConcurrentHashMap<String, FontLoadTask> LOADING = new ConcurrentHashMap<String, FontLoadTask>();
+
+    private final FontSource mSource;
+    // Guarded by this. Weak, so a view that goes away isn't kept around for its font.
+    private final List<WeakReference<FontView>> mWaiters = new ArrayList<WeakReference<FontView>>();
+    private boolean mFinished;
+
+    private FontLoadTask(FontSource source) {
+        mSource = source;
+    }
+
+    /**
+     * Load a font in the background, unless it's already being loaded, and redraw view when it's
+     * ready. Call on the main thread.
+     *
+     * @param source
+     * @param view
+     */
+    static void load(FontSource source, FontView view) {
+        FontLoadTask task = new FontLoadTask(source);
+        FontLoadTask existing = LOADING.putIfAbsent(source.getKey(), task);
+        if (existing != null) task = existing;
+
+        // Finished since we looked it up. The font is in the registry now.
+        if (!task.addWaiter(view)) {
+            RenderScheduler.getInstance().schedule(view);
+            return;
+        }
+        // Views are on screen waiting for this, so it goes to the front of the line
+        if (existing == null) FontExecutor.getInstance().execute(task, PRIORITY_VISIBLE);
+    }
+
+    private synchronized boolean addWaiter(FontView view) {
+        if (mFinished) return false;
+        mWaiters.add(new WeakReference<FontView>(view));
+        return true;
+    }
+
+    @Override
+    protected void doInBackground() {
+        TypefaceRegistry.getInstance().getOrLoad(mSource.getKey(), mSource);
+    }
+
+    @Override
+    protected void onPostExecute() {
+        List<WeakReference<FontView>> waiters;
+        synchronized (this) {
+            mFinished = true;
+            waiters = new ArrayList<WeakReference<FontView>>(mWaiters);
+            mWaiters.clear();
+        }
+        LOADING.remove(mSource.getKey(), this);
+
+        RenderScheduler scheduler = RenderScheduler.getInstance();
+        for (WeakReference<FontView> reference : waiters) {
+            FontView view = reference.get();
+            if (view != null) scheduler.schedule(view);
+        }
+    }
+
+    @Override
+    protected boolean isDroppable() {
+        // Views are blank until it's done
+        return false;
+    }
+
+}
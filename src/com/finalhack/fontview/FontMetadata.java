@@ -0,0 +1,125 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * What we know about a downloaded font file: the validators the server gave us and when we last
+ * confirmed the file was current. Stored as a small sidecar file next to the font.
+ */
+public class FontMetadata {
+
+    private static final String SIDECAR_EXTENSION = ".meta";
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_FETCHED_AT = "fetchedAt";
+    private static final String KEY_LENGTH = "length";
+
+    // The server's entity tag, or null if it didn't send one
+    public String etag;
+    // The server's Last-Modified time in epoch millis, or 0 if it didn't send one
+    public long lastModified;
+    // When we last downloaded or revalidated the file, in epoch millis
+    public long fetchedAt;
+    // The size of the font file we saved
+    public long length;
+
+    /**
+     * @param fontFile
+     * @return where the metadata for the given font file lives
+     */
+    public static File sidecarFor(File fontFile) {
+        return new File(fontFile.getParentFile(), fontFile.getName() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Read the metadata saved for a font file
+     *
+     * @param fontFile
+     * @return the metadata, or null if there is none or it can't be read
+     */
+    public static FontMetadata load(File fontFile) {
+        File sidecar = sidecarFor(fontFile);
+        if (!sidecar.exists()) return null;
+
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(sidecar);
+            Properties properties = new Properties();
+            properties.load(inputStream);
+
+            FontMetadata metadata = new FontMetadata();
+            metadata.etag = properties.getProperty(KEY_ETAG);
+            metadata.lastModified = Long.parseLong(properties.getProperty(KEY_LAST_MODIFIED, "0"));
+            metadata.fetchedAt = Long.parseLong(properties.getProperty(KEY_FETCHED_AT, "0"));
+            metadata.length = Long.parseLong(properties.getProperty(KEY_LENGTH, "0"));
+            return metadata;
+        } catch (Exception e) {
+            // A damaged sidecar just means we revalidate from scratch
+            return null;
+        } finally {
+            FontDownloader.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Save this metadata for a font file. The sidecar is replaced atomically so a crash never
+     * leaves a half written record.
+     *
+     * @param fontFile
+     * @throws IOException
+     */
+    public void save(File fontFile) throws IOException {
+        Properties properties = new Properties();
+        if (etag != null) properties.setProperty(KEY_ETAG, etag);
+        properties.setProperty(KEY_LAST_MODIFIED, Long.toString(lastModified));
+        properties.setProperty(KEY_FETCHED_AT, Long.toString(fetchedAt));
+        properties.setProperty(KEY_LENGTH, Long.toString(length));
+
+        File sidecar = sidecarFor(fontFile);
+        File temp = new File(sidecar.getParentFile(), sidecar.getName() + ".tmp");
+        OutputStream outputStream = new FileOutputStream(temp);
+        try {
+            properties.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+        if (!temp.renameTo(sidecar)) {
+            temp.delete();
+            throw new IOException("Unable to save font metadata for " + fontFile);
+        }
+    }
+
+    /**
+     * Remove the metadata saved for a font file
+     *
+     * @param fontFile
+     */
+    public static void delete(File fontFile) {
+        sidecarFor(fontFile).delete();
+    }
+
+    /**
+     * @param now
+     * @param freshnessWindow
+     * @return true if the file was confirmed current recently enough to skip asking the server
+     */
+    public boolean isFresh(long now, long freshnessWindow) {
+        long age = now - fetchedAt;
+        return age >= 0 && age < freshnessWindow;
+    }
+
+    /**
+     * @return true if we have something to send the server for a conditional request
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified > 0;
+    }
+
+}
@@ -1,106 +1,201 @@
 package com.finalhack.fontview;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This background tasks remote font retrieval. Pull a font from a network resource and save it
  * locally.
  */
-public class FontNetworkTask extends AsyncTask<Integer, Integer, Integer> {
-
-    private static final int BUFFER_SIZE = 10000;
+public class FontNetworkTask extends FontTask {
+
+    // Downloaded fonts live in their own directory so the store only ever manages its own files
+    private static final String STORE_DIRECTORY = "fonts";
+
+    // Tag which urls we've tried to download before, so views don't keep asking
+    // Saved fonts are revalidated across restarts by FontDownloader, using the server's
+    // ETag/Last-Modified validators once the freshness window passes
+    private static final ConcurrentHashMap<String, Boolean> DOWNLOADED = new ConcurrentHashMap<String, Boolean>();
+
+    // Once the store deletes a font (e.g. to stay within its quota), forget we downloaded it, so
+    // it's downloaded again the next time it's needed instead of views staying blank
+    private static final FontStore.Listener STORE_LISTENER = new FontStore.Listener() {
+        @Override
+        public void onRemoved(String key) {
+            for (String url : DOWNLOADED.keySet()) {
+                if (!FontStore.keyFor(url).equals(key)) continue;
+                DOWNLOADED.remove(url);
+                FontView.evictFont(TypefaceRegistry.keyForUrl(url));
+            }
+        }
+    };
 
-    // Tag whether we've tried to download this before
-    // Currently, the app will need to be restated to re-download the font (for updates)
-    // TODO: add either a cache timeout or etag strategy
-    public static Boolean DOWNLOADED = false;
+    // Downloads in progress, by url. Requests for a url that's already downloading join it.
+    private static final SingleFlight<String, FontDownloader.Result> IN_FLIGHT = new SingleFlight<String, FontDownloader.Result>();
 
     // Save off basic contextual information we'll get from a constructor
     private Context mApplicationContext;
-    private FontReceiver mFontReceiver;
     private String mFontUrl;
+    // Set while views are registered for this font in the FontWaiterRegistry
+    private volatile boolean mWaitedOn;
 
     /**
      * Standard constructor. Save contextual information.
      */
-    public FontNetworkTask(Context applicationContext, FontReceiver fontReceiver, String fontUrl) {
+    public FontNetworkTask(Context applicationContext, String fontUrl) {
         mApplicationContext = applicationContext;
-        mFontReceiver = fontReceiver;
         mFontUrl = fontUrl;
     }
 
+    /**
+     * @param applicationContext
+     * @return the store downloaded fonts are kept in
+     */
+    /* package */static FontStore getFontStore(Context applicationContext) {
+        FontStore fontStore = FontStore.get(new File(applicationContext.getExternalFilesDir(null), STORE_DIRECTORY));
+        fontStore.setListener(STORE_LISTENER);
+        return fontStore;
+    }
+
+    /**
+     * @param fontUrl
+     * @return true if we've already tried to download the font at fontUrl
+     */
+    public static boolean isDownloaded(String fontUrl) {
+        return DOWNLOADED.containsKey(fontUrl);
+    }
+
     @Override
-    protected Integer doInBackground(Integer... params) {
+    protected void doInBackground() {
 
         // Run a early check to see if we've already downloaded the file.
         // If we have, don't re-download
-        if (DOWNLOADED) return null;
-
-        // Only let one thread try to pull the file at a time
-        synchronized (DOWNLOADED) {
-
-            // If other threads were already waiting to enter this synchronized block, and we have
-            // the file by the time they enter it...
-            // Don't re-download
-            if (DOWNLOADED) return null;
-
-            long startTime = System.currentTimeMillis();
-
-            String filename = null;
-            int totalBytes = 0;
-            // Download font file here
-            try {
-                // Open the connection
-                HttpURLConnection connection = (HttpURLConnection) new URL(mFontUrl).openConnection();
-                // Get ready to save the file data
-                filename = FontView.hashUrlToFilename(mFontUrl);
-                FileOutputStream fos = new FileOutputStream(new File(mApplicationContext.getExternalFilesDir(null), filename));
-                // Stream the data in
-                InputStream inputStream = connection.getInputStream();
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int read;
-                while ((read = inputStream.read(buffer)) != -1) {
-                    // Make sure we limit the buffer bytes we're writing, to those we just read
-                    fos.write(buffer, 0, read);
-                    totalBytes += read;
+        if (isDownloaded(mFontUrl)) return;
+
+        // Only one download per url at a time. Anyone else asking for this url while it's
+        // downloading waits for that download instead of starting their own.
+        // Different urls download in parallel.
+        try {
+            IN_FLIGHT.execute(mFontUrl, new SingleFlight.Work<FontDownloader.Result>() {
+                @Override
+                public FontDownloader.Result run() throws Exception {
+                    // If another task finished this url between our check and getting here...
+                    // Don't re-download
+                    if (isDownloaded(mFontUrl)) return null;
+
+                    FontStore fontStore = getFontStore(mApplicationContext);
+                    if (!fontStore.contains(mFontUrl)) adoptLegacyFile(fontStore);
+                    File target = fontStore.fileFor(mFontUrl);
+                    // Download font file here, or confirm the copy we have is still current
+                    boolean measure = FontViewMetrics.sEnabled;
+                    long startTime = measure ? FontViewMetrics.begin(FontViewMetrics.DOWNLOAD_TIME) : 0;
+                    try {
+                        FontDownloader.Result result = new FontDownloader().download(mFontUrl, target);
+                        if (measure) {
+                            FontViewMetrics.end(FontViewMetrics.DOWNLOAD_TIME, startTime);
+                            measure = false;
+                            FontViewMetrics.record(FontViewMetrics.DOWNLOAD_BYTES, result.bytes);
+                        }
+
+                        // Let the store know about new files (possibly evicting older ones), or
+                        // that an existing one is still in use. This happens once per url per
+                        // run, so it's a good time to write out access times too.
+                        if (result.status == FontDownloader.Status.DOWNLOADED || !fontStore.contains(mFontUrl)) {
+                            fontStore.commit(mFontUrl);
+                            // Anything drawn from an older copy is out of date
+                            if (result.status == FontDownloader.Status.DOWNLOADED)
+                                FontView.evictFont(TypefaceRegistry.keyForUrl(mFontUrl));
+                        } else {
+                            fontStore.recordAccess(mFontUrl);
+                            fontStore.flush();
+                        }
+
+                        // We're already off the main thread, so cut the font down to its subset (if
+                        // one was declared) now rather than when a view first draws it
+                        FontSource.forUrl(mApplicationContext, mFontUrl).prepare();
+
+                        if (FontView.mDebugEnabled)
+                            Log.d(FontNetworkTask.class.getName(), "Font file(" + mFontUrl + ") " + result.status + ": "
+                                    + result.durationMillis + "ms," + result.bytes + " bytes");
+                        return result;
+                    } finally {
+                        // Close the trace section even if the download failed
+                        if (measure) FontViewMetrics.end(FontViewMetrics.DOWNLOAD_TIME, startTime);
+
+                        // Tell everyone that we've tried to pull the font file, even if it failed,
+                        // so we don't retry on every draw
+                        DOWNLOADED.put(mFontUrl, Boolean.TRUE);
+                    }
                 }
-                // Cleanup
-                fos.close();
-                inputStream.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            long endTime = System.currentTimeMillis();
-
-            if (FontView.mDebugEnabled)
-                Log.d(this.getClass().getName(), "Time to download font file(" + mFontUrl + "): " + (endTime - startTime) + "ms," +
-                        "" + totalBytes + " bytes");
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Tell everyone that we've successfully pulled the font file
-            DOWNLOADED = true;
+    /**
+     * Older versions saved fonts straight into the files directory, under a hash of the url that
+     * dropped leading zeros. Move this url's old copy, if there is one, into the store so it's
+     * managed (and still usable offline) rather than orphaned. Other files there belong to the app
+     * and are never touched.
+     *
+     * @param fontStore
+     */
+    private void adoptLegacyFile(FontStore fontStore) {
+        String legacyName = legacyFilenameFor(mFontUrl);
+        if (legacyName == null) return;
+        File legacyFile = new File(mApplicationContext.getExternalFilesDir(null), legacyName);
+        if (legacyFile.isFile()) fontStore.adopt(mFontUrl, legacyFile);
+    }
 
+    /**
+     * The name older versions saved a font under. Each digest byte was written without its
+     * leading zero, so names vary in length.
+     *
+     * @param fontUrl
+     * @return the legacy file name, or null if it couldn't be computed
+     */
+    private static String legacyFilenameFor(String fontUrl) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            messageDigest.update(fontUrl.getBytes());
+            StringBuilder hexString = new StringBuilder();
+            for (byte digestByte : messageDigest.digest())
+                hexString.append(Integer.toHexString(0xFF & digestByte));
+            return hexString.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
             return null;
         }
+    }
 
+    /**
+     * @param waitedOn true while views are waiting for this task's font
+     */
+    /* package */void setWaitedOn(boolean waitedOn) {
+        mWaitedOn = waitedOn;
+    }
+
+    /**
+     * Views waiting for us would never be told if we were dropped from a full queue
+     */
+    @Override
+    protected boolean isDroppable() {
+        return !mWaitedOn;
     }
 
     /**
-     * When we've pulled down the font file, tell our view who is patiently waiting
+     * When we've pulled down the font file, tell every view who is patiently waiting
      */
     @Override
-    protected void onPostExecute(Integer result) {
-        // Pass 0 and null because we don't care about reporting back anything
+    protected void onPostExecute() {
         // We already know where the file is stored
-        if (mFontReceiver != null) mFontReceiver.send(0, null);
+        FontWaiterRegistry.getInstance().onFontArrived(mFontUrl);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A single file holding many fonts, written by {@link FontPackWriter}. The pack is memory mapped
+ * read-only, so opening it and choosing a font only touches the header and the few index records
+ * a binary search visits; the other fonts' pages are never read.
+ * <p>
+ * Layout, all big endian:
+ *
+ * <pre>
+ * header   magic 'FVPK', u16 version, u16 entry count, u32 index offset, u32 reserved
+ * index    one 32 byte record per font, sorted by the UTF-8 bytes of its name:
+ *          u32 name offset, u16 name length, u16 units per em, s16 ascent, s16 descent,
+ *          u16 glyph count, u16 reserved, u32 coverage offset, u32 coverage range count,
+ *          u32 font offset, u32 font length
+ * names    UTF-8
+ * coverage per font, sorted u32 first/last code point pairs
+ * fonts    each font file as is, on a four byte boundary
+ * </pre>
+ */
+public final class FontPack {
+
+    /* package */static final int MAGIC = 0x4656504B; // 'FVPK'
+    /* package */static final int VERSION = 1;
+    /* package */static final int HEADER_SIZE = 16;
+    /* package */static final int ENTRY_SIZE = 32;
+
+    private static final int ENTRY_NAME_OFFSET = 0;
+    private static final int ENTRY_NAME_LENGTH = 4;
+    private static final int ENTRY_UNITS_PER_EM = 6;
+    private static final int ENTRY_ASCENT = 8;
+    private static final int ENTRY_DESCENT = 10;
+    private static final int ENTRY_GLYPH_COUNT = 12;
+    private static final int ENTRY_COVERAGE_OFFSET = 16;
+    private static final int ENTRY_COVERAGE_COUNT = 20;
+    private static final int ENTRY_FONT_OFFSET = 24;
+    private static final int ENTRY_FONT_LENGTH = 28;
+
+    private final ByteBuffer mPack;
+    private final int mEntryCount;
+    private final int mIndexOffset;
+
+    private FontPack(ByteBuffer pack) throws IOException {
+        mPack = pack;
+        if (pack.limit() < HEADER_SIZE || pack.getInt(0) != MAGIC) throw new IOException("Not a font pack");
+        int version = pack.getShort(4) & 0xFFFF;
+        if (version != VERSION) throw new IOException("Unsupported font pack version " + version);
+        mEntryCount = pack.getShort(6) & 0xFFFF;
+        mIndexOffset = pack.getInt(8);
+        if (mIndexOffset < HEADER_SIZE || (long) mIndexOffset + (long) mEntryCount * ENTRY_SIZE > pack.limit())
+            throw new IOException("Truncated font pack");
+    }
+
+    /**
+     * Map a pack file
+     *
+     * @param packFile
+     * @return the pack
+     * @throws IOException if the file can't be read or isn't a pack
+     */
+    public static FontPack open(File packFile) throws IOException {
+        FileInputStream inputStream = new FileInputStream(packFile);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return new FontPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // The mapping stays valid after the channel is closed
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Read a pack already in memory. The buffer's position and limit mark out the pack; neither is
+     * changed.
+     *
+     * @param pack
+     * @return the pack
+     * @throws IOException if the buffer doesn't hold a pack
+     */
+    public static FontPack wrap(ByteBuffer pack) throws IOException {
+        return new FontPack(pack.slice());
+    }
+
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /**
+     * Find a font by name
+     *
+     * @param name
+     * @return the font's index, or -1 if the pack doesn't have it
+     */
+    public int indexOf(String name) {
+        byte[] target = utf8(name);
+        // Binary search on the raw name bytes, so names are never decoded
+        int low = 0;
+        int high = mEntryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareName(middle, target);
+            if (comparison < 0) low = middle + 1;
+            else if (comparison > 0) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index
+     * @return the name the font was added under
+     */
+    public String getName(int index) {
+        int entry = entry(index);
+        byte[] name = new byte[mPack.getShort(entry + ENTRY_NAME_LENGTH) & 0xFFFF];
+        ByteBuffer names = mPack.duplicate();
+        names.position(mPack.getInt(entry + ENTRY_NAME_OFFSET));
+        names.get(name);
+        try {
+            return new String(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public int getUnitsPerEm(int index) {
+        return mPack.getShort(entry(index) + ENTRY_UNITS_PER_EM) & 0xFFFF;
+    }
+
+    /**
+     * @return the font's ascent above the baseline, in font units
+     */
+    public int getAscent(int index) {
+        return mPack.getShort(entry(index) + ENTRY_ASCENT);
+    }
+
+    /**
+     * @return the font's descent, in font units. Negative below the baseline.
+     */
+    public int getDescent(int index) {
+        return mPack.getShort(entry(index) + ENTRY_DESCENT);
+    }
+
+    public int getGlyphCount(int index) {
+        return mPack.getShort(entry(index) + ENTRY_GLYPH_COUNT) & 0xFFFF;
+    }
+
+    /**
+     * @param index
+     * @return the code points the font has glyphs for, as recorded when the pack was written
+     */
+    public GlyphCoverage getCoverage(int index) {
+        int entry = entry(index);
+        int ranges = mPack.getInt(entry + ENTRY_COVERAGE_OFFSET);
+        int rangeCount = mPack.getInt(entry + ENTRY_COVERAGE_COUNT);
+        GlyphCoverage.Builder builder = new GlyphCoverage.Builder();
+        for (int i = 0; i < rangeCount; i++)
+            builder.addRange(mPack.getInt(ranges + i * 8), mPack.getInt(ranges + i * 8 + 4));
+        return builder.build();
+    }
+
+    /**
+     * @param index
+     * @return a read-only view of the font file, without copying it
+     */
+    public ByteBuffer getFont(int index) {
+        int entry = entry(index);
+        int offset = mPack.getInt(entry + ENTRY_FONT_OFFSET);
+        ByteBuffer font = mPack.asReadOnlyBuffer();
+        font.limit(offset + mPack.getInt(entry + ENTRY_FONT_LENGTH)).position(offset);
+        return font.slice();
+    }
+
+    private int entry(int index) {
+        if (index < 0 || index >= mEntryCount) throw new IndexOutOfBoundsException("No font " + index + " in a pack of " + mEntryCount);
+        return mIndexOffset + index * ENTRY_SIZE;
+    }
+
+    /**
+     * Compare an entry's name with the given bytes, as unsigned bytes
+     */
+    private int compareName(int index, byte[] target) {
+        int entry = mIndexOffset + index * ENTRY_SIZE;
+        int name = mPack.getInt(entry + ENTRY_NAME_OFFSET);
+        int length = mPack.getShort(entry + ENTRY_NAME_LENGTH) & 0xFFFF;
+        int common = Math.min(length, target.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (mPack.get(name + i) & 0xFF) - (target[i] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return length - target.length;
+    }
+
+    /* package */static byte[] utf8(String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
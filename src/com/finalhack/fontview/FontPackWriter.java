@@ -0,0 +1,214 @@
+package com.finalhack.fontview;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds a {@link FontPack} from a set of named fonts. Each font's coverage and metrics are read
+ * now and stored in the pack's index, so apps can choose fonts and check glyphs without parsing
+ * any font. Runs on a plain JVM, e.g. as part of a build.
+ */
+public class FontPackWriter {
+
+    private static final int TAG_HEAD = 0x68656164; // 'head'
+    private static final int TAG_HHEA = 0x68686561; // 'hhea'
+    private static final int TAG_MAXP = 0x6D617870; // 'maxp'
+
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    // A font waiting to be written
+    private static class Entry {
+        byte[] name;
+        byte[] font;
+        int unitsPerEm;
+        int ascent;
+        int descent;
+        int glyphCount;
+        // {first, last} code point pairs
+        List<int[]> ranges = new ArrayList<int[]>();
+    }
+
+    // Pack order: by the unsigned bytes of the name, which is what FontPack searches on
+    private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int common = Math.min(a.name.length, b.name.length);
+            for (int i = 0; i < common; i++) {
+                int difference = (a.name[i] & 0xFF) - (b.name[i] & 0xFF);
+                if (difference != 0) return difference;
+            }
+            return a.name.length - b.name.length;
+        }
+    };
+
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+
+    /**
+     * Add a font file
+     *
+     * @param name what apps will ask for the font by
+     * @param fontFile
+     * @return this writer
+     * @throws IOException if the file can't be read or isn't a font
+     */
+    public FontPackWriter add(String name, File fontFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fontFile, "r");
+        try {
+            byte[] font = new byte[(int) file.length()];
+            file.readFully(font);
+            return add(name, font);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Add a font
+     *
+     * @param name what apps will ask for the font by
+     * @param font the font file's contents. Not copied, so don't change it before writing.
+     * @return this writer
+     * @throws IOException if font isn't a font
+     */
+    public FontPackWriter add(String name, byte[] font) throws IOException {
+        Entry entry = new Entry();
+        entry.name = FontPack.utf8(name);
+        if (entry.name.length > MAX_NAME_LENGTH) throw new IllegalArgumentException("Font name too long");
+        for (Entry existing : mEntries)
+            if (BY_NAME.compare(existing, entry) == 0) throw new IllegalArgumentException("Font " + name + " was already added");
+        if (mEntries.size() == MAX_ENTRIES) throw new IllegalStateException("A pack holds at most " + MAX_ENTRIES + " fonts");
+        entry.font = font;
+
+        ByteBuffer buffer = ByteBuffer.wrap(font);
+        try {
+            int head = CmapParser.findTable(buffer, 0, TAG_HEAD);
+            int hhea = CmapParser.findTable(buffer, 0, TAG_HHEA);
+            int maxp = CmapParser.findTable(buffer, 0, TAG_MAXP);
+            if (head < 0 || hhea < 0 || maxp < 0) throw new IOException(name + " is missing font tables");
+            entry.unitsPerEm = buffer.getShort(head + 18) & 0xFFFF;
+            entry.ascent = buffer.getShort(hhea + 4);
+            entry.descent = buffer.getShort(hhea + 6);
+            entry.glyphCount = buffer.getShort(maxp + 4) & 0xFFFF;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(name + " is not a font");
+        }
+
+        GlyphCoverage coverage = CmapParser.parse(buffer);
+        if (coverage == null) throw new IOException(name + " has no Unicode cmap");
+        // Store runs of code points rather than each one
+        int[] range = null;
+        for (int codePoint = coverage.nextCodePoint(0); codePoint >= 0; codePoint = coverage.nextCodePoint(codePoint + 1)) {
+            if (range != null && codePoint == range[1] + 1) {
+                range[1] = codePoint;
+            } else {
+                range = new int[] { codePoint, codePoint };
+                entry.ranges.add(range);
+            }
+        }
+
+        mEntries.add(entry);
+        return this;
+    }
+
+    /**
+     * Write the pack to a file
+     *
+     * @param packFile overwritten
+     * @throws IOException
+     */
+    public void write(File packFile) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(packFile), FontDownloader.BUFFER_SIZE);
+        try {
+            write(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Write the pack to a stream. The stream isn't closed.
+     *
+     * @param outputStream
+     * @throws IOException
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>(mEntries);
+        Collections.sort(entries, BY_NAME);
+
+        // Lay out the names, then the coverage, then the fonts
+        int offset = FontPack.HEADER_SIZE + entries.size() * FontPack.ENTRY_SIZE;
+        int[] nameOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            nameOffsets[i] = offset;
+            offset += entries.get(i).name.length;
+        }
+        offset = padded(offset);
+        int[] coverageOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            coverageOffsets[i] = offset;
+            offset += entries.get(i).ranges.size() * 8;
+        }
+        int[] fontOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            fontOffsets[i] = offset;
+            offset = padded(offset + entries.get(i).font.length);
+        }
+
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(FontPack.MAGIC);
+        output.writeShort(FontPack.VERSION);
+        output.writeShort(entries.size());
+        output.writeInt(FontPack.HEADER_SIZE);
+        output.writeInt(0);
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            output.writeInt(nameOffsets[i]);
+            output.writeShort(entry.name.length);
+            output.writeShort(entry.unitsPerEm);
+            output.writeShort(entry.ascent);
+            output.writeShort(entry.descent);
+            output.writeShort(entry.glyphCount);
+            output.writeShort(0);
+            output.writeInt(coverageOffsets[i]);
+            output.writeInt(entry.ranges.size());
+            output.writeInt(fontOffsets[i]);
+            output.writeInt(entry.font.length);
+        }
+
+        for (Entry entry : entries)
+            output.write(entry.name);
+        pad(output);
+        for (Entry entry : entries)
+            for (int[] range : entry.ranges) {
+                output.writeInt(range[0]);
+                output.writeInt(range[1]);
+            }
+        for (Entry entry : entries) {
+            output.write(entry.font);
+            pad(output);
+        }
+        output.flush();
+    }
+
+    private static void pad(DataOutputStream output) throws IOException {
+        while (output.size() % 4 != 0)
+            output.write(0);
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+
+}
@@ -0,0 +1,243 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+
+/**
+ * Downloads a set of network fonts up front, e.g. everything the app needs at startup, in the
+ * least wall clock time. Fonts are fetched in priority order on the prefetcher's own workers, so
+ * how many transfers run in parallel is up to the caller rather than the shared font workers, and
+ * fonts for views already on screen are never held up. Finished transfers hand their connection
+ * back to HttpURLConnection's keep-alive pool, so fonts from the same host reuse connections
+ * rather than each opening a new one.
+ * <p>
+ * Each font gets a {@link Handle} to cancel it, wait for it or check on it. Downloads land in the
+ * same store views load from, and a font a view is already downloading is joined rather than
+ * fetched twice. Workers start as fonts are asked for and stop once they've had nothing to do for
+ * a few seconds, so a prefetcher that's dropped without {@link #shutdown()} doesn't keep its
+ * threads.
+ */
+public class FontPrefetcher {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    // A prefetch list is chosen by the app, so nothing in it is ever dropped
+    private static final int MAX_QUEUED = Integer.MAX_VALUE;
+    // How long an idle worker waits for another font before it stops
+    private static final long KEEP_ALIVE_MILLIS = 5 * 1000;
+
+    /**
+     * One font being prefetched
+     */
+    public class Handle {
+        private final String mUrl;
+        private final PrefetchTask mTask;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mSuccessful;
+
+        private Handle(String url) {
+            mUrl = url;
+            mTask = new PrefetchTask(this);
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * Stop fetching the font if its transfer hasn't started. One that has is left to finish,
+         * since views may be waiting on it, and this handle is done when it does.
+         *
+         * @return true if the font was cancelled before its transfer started
+         */
+        public boolean cancel() {
+            return mTask.cancel();
+        }
+
+        public boolean isCancelled() {
+            return mTask.isCancelled();
+        }
+
+        /**
+         * @return true once the font has been fetched, failed or was cancelled
+         */
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        /**
+         * @return true if the font is on disk, ready to load. Only meaningful once done.
+         */
+        public boolean isSuccessful() {
+            return mSuccessful;
+        }
+
+        /**
+         * Wait for the font. Don't call this on the main thread.
+         *
+         * @return true if the font is on disk
+         * @throws InterruptedException
+         */
+        public boolean await() throws InterruptedException {
+            mDone.await();
+            return mSuccessful;
+        }
+
+        /**
+         * Wait for the font, up to a limit. Don't call this on the main thread.
+         *
+         * @param timeout
+         * @param unit
+         * @return true if the font is on disk, false if it isn't or the time ran out (see
+         *         {@link #isDone()})
+         * @throws InterruptedException
+         */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return mDone.await(timeout, unit) && mSuccessful;
+        }
+
+        private void finish(boolean successful) {
+            mSuccessful = successful;
+            mDone.countDown();
+        }
+    }
+
+    private final Context mApplicationContext;
+    private final FontExecutor mExecutor;
+    // The latest handle for each url, so asking twice shares one download
+    private final HashMap<String, Handle> mHandles = new HashMap<String, Handle>();
+
+    /**
+     * Standard constructor. Uses up to {@link #DEFAULT_PARALLELISM} workers.
+     *
+     * @param context
+     */
+    public FontPrefetcher(Context context) {
+        this(context, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructor for a chosen number of workers
+     *
+     * @param context
+     * @param parallelism how many fonts may download at once
+     */
+    public FontPrefetcher(Context context, int parallelism) {
+        mApplicationContext = context.getApplicationContext();
+        mExecutor = new FontExecutor(parallelism, MAX_QUEUED, KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * Start fetching a font, unless this prefetcher is already fetching it. Asking again for a
+     * font that's still waiting with a more urgent priority moves it up.
+     *
+     * @param url
+     * @param priority lower runs first; see FontTask.PRIORITY_*
+     * @return the font's handle
+     */
+    public synchronized Handle prefetch(String url, int priority) {
+        Handle handle = mHandles.get(url);
+        if (handle != null && !handle.isCancelled()) {
+            if (priority < handle.mTask.getPriority()) mExecutor.reprioritize(handle.mTask, priority);
+            return handle;
+        }
+
+        handle = new Handle(url);
+        mHandles.put(url, handle);
+        mExecutor.execute(handle.mTask, priority);
+        return handle;
+    }
+
+    /**
+     * Start fetching several fonts at the same priority
+     *
+     * @param urls
+     * @param priority lower runs first; see FontTask.PRIORITY_*
+     * @return the handles, in the same order as urls
+     */
+    public List<Handle> prefetchAll(Collection<String> urls, int priority) {
+        List<Handle> handles = new ArrayList<Handle>(urls.size());
+        for (String url : urls)
+            handles.add(prefetch(url, priority));
+        return handles;
+    }
+
+    /**
+     * Wait for every font asked for so far. Don't call this on the main thread.
+     *
+     * @return true if every font that wasn't cancelled is on disk
+     * @throws InterruptedException
+     */
+    public boolean awaitAll() throws InterruptedException {
+        List<Handle> handles;
+        synchronized (this) {
+            handles = new ArrayList<Handle>(mHandles.values());
+        }
+        boolean successful = true;
+        for (Handle handle : handles)
+            if (!handle.await() && !handle.isCancelled()) successful = false;
+        return successful;
+    }
+
+    /**
+     * Cancel every font that hasn't been fetched yet and release the workers once transfers in
+     * progress finish, without waiting for them to go idle. The prefetcher can't be used
+     * afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Downloads one font on a prefetch worker
+     */
+    private class PrefetchTask extends FontTask {
+        private final Handle mHandle;
+        // The handle is finished exactly once, whether the task ran or was cancelled first
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+
+        PrefetchTask(Handle handle) {
+            mHandle = handle;
+        }
+
+        @Override
+        protected void doInBackground() {
+            boolean successful = false;
+            try {
+                // Joins a download views have already started for this url
+                new FontNetworkTask(mApplicationContext, mHandle.mUrl).doInBackground();
+                File font = FontNetworkTask.getFontStore(mApplicationContext).fileFor(mHandle.mUrl);
+                successful = font.exists();
+            } finally {
+                finish(successful);
+            }
+        }
+
+        @Override
+        protected void onPostExecute() {
+            // Views that asked for the font while we fetched it can draw now
+            FontWaiterRegistry.getInstance().onFontArrived(mHandle.mUrl);
+        }
+
+        @Override
+        public boolean cancel() {
+            boolean cancelled = super.cancel();
+            // Cancelled before running, so doInBackground will never finish the handle
+            if (cancelled) finish(false);
+            return cancelled;
+        }
+
+        private void finish(boolean successful) {
+            if (mFinished.compareAndSet(false, true)) mHandle.finish(successful);
+        }
+    }
+
+}
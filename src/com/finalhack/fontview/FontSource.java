@@ -0,0 +1,429 @@
+package com.finalhack.fontview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.graphics.Typeface;
+import android.util.Log;
+
+import com.finalhack.fontview.FontView.LocationType;
+
+/**
+ * Where a font comes from (an asset, a file, a network location or a font pack) and how to decode
+ * it. Used as the {@link TypefaceRegistry.Loader} for that font, so only the first request for a
+ * font ever decodes it.
+ * <p>
+ * A font with a declared subset is cut down with {@link FontSubsetter} before it's decoded. Fonts
+ * in packs are copied out of the pack, since Typeface can only decode whole files. Both are kept
+ * in the cache directory and reused until the original font changes. Making them is left to font
+ * workers; see {@link #needsPreparation()}.
+ */
+/* package */final class FontSource implements TypefaceRegistry.Loader {
+
+    private static final String SUBSET_DIRECTORY = "font-subsets";
+    private static final String PACK_DIRECTORY = "font-packs";
+    private static final String FONT_EXTENSION = ".ttf";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    // Code points to cut each font down to, by registry key
+    private static final ConcurrentHashMap<String, GlyphCoverage> SUBSETS = new ConcurrentHashMap<String, GlyphCoverage>();
+
+    // Open packs, by path. A pack is mapped once and shared by all of its fonts.
+    private static final ConcurrentHashMap<String, OpenPack> PACKS = new ConcurrentHashMap<String, OpenPack>();
+
+    private static class OpenPack {
+        final FontPack pack;
+        // Packs that are replaced on disk are mapped again
+        final long lastModified;
+
+        OpenPack(FontPack pack, long lastModified) {
+            this.pack = pack;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Context mApplicationContext;
+    private final LocationType mType;
+    // The asset path, url or font name within a pack. Null for files.
+    private final String mLocation;
+    // The font file, or the pack file
+    private final File mFile;
+    private final String mKey;
+    // The subset the last load decoded, so coverage is read from the same file
+    private File mSubsetFile;
+
+    private FontSource(Context applicationContext, LocationType type, String location, File file, String key) {
+        mApplicationContext = applicationContext;
+        mType = type;
+        mLocation = location;
+        mFile = file;
+        mKey = key;
+    }
+
+    static FontSource forAsset(Context applicationContext, String assetLocation) {
+        return new FontSource(applicationContext, LocationType.ASSET, assetLocation, null, TypefaceRegistry.keyForAsset(assetLocation));
+    }
+
+    static FontSource forFile(Context applicationContext, File fontFile) {
+        return new FontSource(applicationContext, LocationType.FILE, null, fontFile, TypefaceRegistry.keyForFile(fontFile));
+    }
+
+    static FontSource forUrl(Context applicationContext, String url) {
+        return new FontSource(applicationContext, LocationType.NETWORK, url, null, TypefaceRegistry.keyForUrl(url));
+    }
+
+    static FontSource forPack(Context applicationContext, File packFile, String fontName) {
+        return new FontSource(applicationContext, LocationType.PACK, fontName, packFile, TypefaceRegistry.keyForPack(packFile, fontName));
+    }
+
+    /**
+     * Declare the code points a font is used for, so it's decoded from a subset holding only those
+     * glyphs
+     *
+     * @param key the font's registry key
+     * @param codePoints null to use the whole font
+     */
+    static void setSubset(String key, GlyphCoverage codePoints) {
+        if (codePoints == null) SUBSETS.remove(key);
+        else SUBSETS.put(key, codePoints);
+    }
+
+    LocationType getType() {
+        return mType;
+    }
+
+    /**
+     * @return the asset path, url or font name within a pack, or null for files
+     */
+    String getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * @return the key this font is registered under in the TypefaceRegistry
+     */
+    String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return true if this is a network font that hasn't been fetched yet
+     */
+    boolean needsDownload() {
+        return mType == LocationType.NETWORK && !FontNetworkTask.isDownloaded(mLocation);
+    }
+
+    /**
+     * @return true if decoding this font first means making a file (a subset, or a copy out of a
+     *         pack) that isn't made yet. That's too slow for the main thread; see
+     *         {@link #prepare()}.
+     */
+    boolean needsPreparation() {
+        GlyphCoverage codePoints = SUBSETS.get(mKey);
+        if (codePoints != null) return !isCurrent(subsetFileFor(codePoints));
+        return mType == LocationType.PACK && !isCurrent(packFontFile());
+    }
+
+    /**
+     * Make any file decoding this font needs, so a later load only has to decode it. Called on a
+     * font worker, e.g. right after a download.
+     */
+    void prepare() {
+        if (SUBSETS.get(mKey) != null) loadSubset();
+        else if (mType == LocationType.PACK) loadPackFont();
+    }
+
+    /**
+     * Decode the font from the correct source. Only called by the registry when no one has decoded
+     * this font yet.
+     *
+     * @return the font, or null if it isn't available
+     */
+    @Override
+    public Typeface load() {
+        mSubsetFile = null;
+        File subsetFile = loadSubset();
+        if (subsetFile != null) {
+            try {
+                Typeface typeface = Typeface.createFromFile(subsetFile);
+                mSubsetFile = subsetFile;
+                return typeface;
+            } catch (Exception e) {
+                // Fall back to the whole font
+                subsetFile.delete();
+                if (FontView.mDebugEnabled) Log.d(FontView.class.getSimpleName(), "Bad subset of " + mKey);
+            }
+        }
+
+        switch (mType) {
+            case NETWORK:
+                FontStore fontStore = FontNetworkTask.getFontStore(mApplicationContext);
+                File fontFile = fontStore.fileFor(mLocation);
+                fontStore.recordAccess(mLocation);
+                // It's possible to get a RuntimeException if the font file exists, but is bad or
+                // empty
+                try {
+                    return Typeface.createFromFile(fontFile);
+                } catch (Exception e) {
+                    // Bad font file
+                    if (FontView.mDebugEnabled) Log.d(FontView.class.getSimpleName(), "Bad font file");
+                }
+                return null;
+            case FILE:
+                return Typeface.createFromFile(mFile);
+            case ASSET:
+                return Typeface.createFromAsset(mApplicationContext.getAssets(), mLocation);
+            case PACK:
+                File extracted = loadPackFont();
+                return extracted == null ? null : Typeface.createFromFile(extracted);
+        }
+        return null;
+    }
+
+    /**
+     * Read which code points the font has glyphs for, from its cmap table. Only called by the
+     * registry, right after the font is decoded.
+     *
+     * @return the coverage, or null if it can't be read
+     */
+    @Override
+    public GlyphCoverage loadCoverage() {
+        if (mSubsetFile != null) return CmapParser.parse(mSubsetFile);
+        switch (mType) {
+            case NETWORK:
+                return CmapParser.parse(FontNetworkTask.getFontStore(mApplicationContext).fileFor(mLocation));
+            case FILE:
+                return CmapParser.parse(mFile);
+            case ASSET:
+                ByteBuffer font = readAsset();
+                return font == null ? null : CmapParser.parse(font);
+            case PACK:
+                // Recorded when the pack was written, so nothing needs parsing
+                FontPack pack = openPack(mFile);
+                int index = pack == null ? -1 : pack.indexOf(mLocation);
+                return index < 0 ? null : pack.getCoverage(index);
+        }
+        return null;
+    }
+
+    /**
+     * Find or make the subset of this font, if one was declared
+     *
+     * @return the subset font file, or null to decode the whole font
+     */
+    private File loadSubset() {
+        final GlyphCoverage codePoints = SUBSETS.get(mKey);
+        if (codePoints == null) return null;
+
+        return loadCachedFont(subsetFileFor(codePoints), new FontWriter() {
+            @Override
+            public byte[] write(ByteBuffer font) throws IOException {
+                byte[] subset = FontSubsetter.subset(font, codePoints);
+                if (FontView.mDebugEnabled)
+                    Log.d(FontView.class.getSimpleName(), "Subset " + mKey + " to " + codePoints.size() + " code points, " + subset.length
+                            + " bytes");
+                return subset;
+            }
+        });
+    }
+
+    /**
+     * Copy this font out of its pack, unless that's already been done
+     *
+     * @return the font file, or null if the pack doesn't have the font
+     */
+    private File loadPackFont() {
+        return loadCachedFont(packFontFile(), null);
+    }
+
+    private File subsetFileFor(GlyphCoverage codePoints) {
+        return new File(new File(mApplicationContext.getCacheDir(), SUBSET_DIRECTORY), subsetName(mKey, codePoints));
+    }
+
+    private File packFontFile() {
+        return new File(new File(mApplicationContext.getCacheDir(), PACK_DIRECTORY), FontView.hashUrlToFilename(mKey) + FONT_EXTENSION);
+    }
+
+    /**
+     * Makes a font file out of this font
+     */
+    private interface FontWriter {
+        /**
+         * @param font this font's bytes
+         * @return the new font file's bytes
+         * @throws IOException if it can't be done
+         */
+        byte[] write(ByteBuffer font) throws IOException;
+    }
+
+    /**
+     * Find a font file made from this font, or make it. Files are remade when the font (for
+     * assets, the app) changes.
+     *
+     * @param cachedFile
+     * @param writer makes the file from this font, or null to copy it as is
+     * @return the file, or null if this font isn't available or the file couldn't be made
+     */
+    private File loadCachedFont(File cachedFile, FontWriter writer) {
+        // Not downloaded yet
+        if (!sourceFile().exists()) return null;
+        if (isCurrent(cachedFile)) return cachedFile;
+
+        FileOutputStream outputStream = null;
+        File temporary = new File(cachedFile.getParentFile(), cachedFile.getName() + TEMPORARY_EXTENSION);
+        try {
+            ByteBuffer font = readFont();
+            if (font == null) return null;
+
+            cachedFile.getParentFile().mkdirs();
+            outputStream = new FileOutputStream(temporary);
+            if (writer != null) outputStream.write(writer.write(font));
+            else while (font.hasRemaining())
+                outputStream.getChannel().write(font);
+            outputStream.close();
+            outputStream = null;
+
+            // Like downloads, only ever let readers see a complete file
+            if (!temporary.renameTo(cachedFile)) throw new IOException("Unable to move " + temporary + " to " + cachedFile);
+            return cachedFile;
+        } catch (IOException e) {
+            // e.g. a CFF font can't be subset. The whole font still works.
+            if (FontView.mDebugEnabled) Log.d(FontView.class.getSimpleName(), "Can't make " + cachedFile + " for " + mKey + ": " + e.getMessage());
+            temporary.delete();
+            return null;
+        } finally {
+            FontDownloader.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * @param cachedFile
+     * @return true if cachedFile was made from the font as it is now
+     */
+    private boolean isCurrent(File cachedFile) {
+        File source = sourceFile();
+        return source.exists() && cachedFile.exists() && cachedFile.lastModified() >= source.lastModified();
+    }
+
+    /**
+     * @return the file whose modification time says when this font last changed
+     */
+    private File sourceFile() {
+        switch (mType) {
+            case NETWORK:
+                return FontNetworkTask.getFontStore(mApplicationContext).fileFor(mLocation);
+            case ASSET:
+                return new File(mApplicationContext.getApplicationInfo().sourceDir);
+            default:
+                return mFile;
+        }
+    }
+
+    /**
+     * @return this font's bytes, mapped where possible, or null if it isn't available
+     */
+    private ByteBuffer readFont() throws IOException {
+        switch (mType) {
+            case ASSET:
+                return readAsset();
+            case PACK:
+                FontPack pack = openPack(mFile);
+                int index = pack == null ? -1 : pack.indexOf(mLocation);
+                return index < 0 ? null : pack.getFont(index);
+            default:
+                return map(sourceFile());
+        }
+    }
+
+    /**
+     * @param packFile
+     * @return the pack, mapped once and shared, or null if it can't be read
+     */
+    private static FontPack openPack(File packFile) {
+        String path = packFile.getAbsolutePath();
+        long lastModified = packFile.lastModified();
+        OpenPack open = PACKS.get(path);
+        if (open != null && open.lastModified == lastModified) return open.pack;
+
+        try {
+            // Two threads may both map a changed pack. Either mapping is fine.
+            open = new OpenPack(FontPack.open(packFile), lastModified);
+            PACKS.put(path, open);
+            return open.pack;
+        } catch (IOException e) {
+            if (FontView.mDebugEnabled) Log.d(FontView.class.getSimpleName(), "Bad font pack " + packFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return a file name unique to the font and the code points kept from it
+     */
+    private static String subsetName(String key, GlyphCoverage codePoints) {
+        StringBuilder name = new StringBuilder(key);
+        for (int codePoint = codePoints.nextCodePoint(0); codePoint >= 0; codePoint = codePoints.nextCodePoint(codePoint + 1))
+            name.append(',').append(codePoint);
+        return FontView.hashUrlToFilename(name.toString()) + FONT_EXTENSION;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Assets are mapped straight out of the apk when they're stored uncompressed. Compressed
+     * assets have to be read instead.
+     *
+     * @return the asset's bytes, or null if it can't be read
+     */
+    private ByteBuffer readAsset() {
+        AssetManager assets = mApplicationContext.getAssets();
+        AssetFileDescriptor descriptor = null;
+        FileInputStream mappedStream = null;
+        try {
+            descriptor = assets.openFd(mLocation);
+            mappedStream = descriptor.createInputStream();
+            return mappedStream.getChannel().map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(),
+                    descriptor.getDeclaredLength());
+        } catch (IOException e) {
+            // Compressed. Fall through and read it.
+        } finally {
+            FontDownloader.closeQuietly(mappedStream);
+            if (descriptor != null) try {
+                descriptor.close();
+            } catch (IOException e) {
+                // Nothing useful to do
+            }
+        }
+
+        InputStream inputStream = null;
+        try {
+            inputStream = assets.open(mLocation);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            FontDownloader.copy(inputStream, bytes, new byte[FontDownloader.BUFFER_SIZE]);
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } catch (IOException e) {
+            return null;
+        } finally {
+            FontDownloader.closeQuietly(inputStream);
+        }
+    }
+
+}
@@ -0,0 +1,387 @@
+package com.finalhack.fontview;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The on-disk home for downloaded fonts. Each font is stored under a fixed-width key derived from
+ * its url, and an index file records each font's size and when it was last used. When the store
+ * grows past its disk quota, the least recently used fonts are deleted.
+ * <p>
+ * Opening a store only reads the index, so startup cost doesn't grow with the number of files in
+ * the directory. The directory is only listed once, to adopt existing fonts, if there's no index
+ * yet.
+ */
+public class FontStore {
+
+    public static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+
+    private static final String INDEX_FILE = "fontstore.idx";
+    private static final String INDEX_HEADER = "fontstore 1";
+    private static final int KEY_LENGTH = 32;
+
+    // One store per directory, so every caller sees the same index
+    private static final HashMap<String, FontStore> STORES = new HashMap<String, FontStore>();
+    private static long sDefaultMaxBytes = DEFAULT_MAX_BYTES;
+
+    /**
+     * Told when a font leaves the store, so anyone who remembers it being on disk can forget
+     */
+    public interface Listener {
+        /**
+         * Called with the store locked, so keep it short
+         *
+         * @param key the removed font's key, see {@link FontStore#keyFor(String)}
+         */
+        void onRemoved(String key);
+    }
+
+    // What we know about a single stored font
+    private static class Entry {
+        long size;
+        long lastAccess;
+    }
+
+    private final File mDirectory;
+    // Access ordered, so iteration starts at the least recently used font
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mTotalBytes;
+    private long mMaxBytes;
+    private volatile Listener mListener;
+
+    /**
+     * Standard constructor. Use {@link #get(File)} to share a store.
+     *
+     * @param directory where fonts are kept
+     * @param maxBytes the disk quota
+     */
+    public FontStore(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mDirectory.mkdirs();
+        if (!loadIndex()) adoptExistingFiles();
+    }
+
+    /**
+     * @param directory
+     * @return the store shared by everyone using that directory
+     */
+    public static FontStore get(File directory) {
+        synchronized (STORES) {
+            String path = directory.getAbsolutePath();
+            FontStore store = STORES.get(path);
+            if (store == null) {
+                store = new FontStore(directory, sDefaultMaxBytes);
+                STORES.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Change the disk quota for every store, including ones already open
+     *
+     * @param maxBytes
+     */
+    public static void setDefaultMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+        List<FontStore> stores;
+        synchronized (STORES) {
+            sDefaultMaxBytes = maxBytes;
+            stores = new ArrayList<FontStore>(STORES.values());
+        }
+        for (FontStore store : stores)
+            store.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * @param listener told about fonts that are evicted or removed, or null
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param url
+     * @return the fixed-width key a font url is stored under
+     */
+    public static String keyFor(String url) {
+        return FontDownloader.hashUrlToFilename(url);
+    }
+
+    /**
+     * @param url
+     * @return where the font for url is (or will be) stored
+     */
+    public File fileFor(String url) {
+        return new File(mDirectory, keyFor(url));
+    }
+
+    /**
+     * @param url
+     * @return true if the store holds the font for url
+     */
+    public synchronized boolean contains(String url) {
+        return mEntries.containsKey(keyFor(url));
+    }
+
+    /**
+     * Note that the font for url was just used, so it's the last to be evicted. Access times are
+     * written out with the next change to the index rather than on every access.
+     *
+     * @param url
+     */
+    public synchronized void recordAccess(String url) {
+        Entry entry = mEntries.get(keyFor(url));
+        if (entry != null) entry.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Record a font that was just written to {@link #fileFor(String)}, then evict other fonts if
+     * we're over quota
+     *
+     * @param url
+     */
+    public synchronized void commit(String url) {
+        String key = keyFor(url);
+        File file = new File(mDirectory, key);
+        if (!file.exists()) return;
+
+        Entry entry = mEntries.get(key);
+        if (entry != null) mTotalBytes -= entry.size;
+        else {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+        entry.size = file.length();
+        entry.lastAccess = System.currentTimeMillis();
+        mTotalBytes += entry.size;
+
+        trimToSize(key);
+        saveIndex();
+    }
+
+    /**
+     * Move a font saved somewhere else into the store as the font for url, unless the store
+     * already has one
+     *
+     * @param url
+     * @param file
+     * @return true if the file was moved in
+     */
+    public synchronized boolean adopt(String url, File file) {
+        File target = fileFor(url);
+        if (mEntries.containsKey(keyFor(url)) || target.exists()) return false;
+        if (!file.renameTo(target)) return false;
+        commit(url);
+        return true;
+    }
+
+    /**
+     * Delete the font for url
+     *
+     * @param url
+     */
+    public synchronized void remove(String url) {
+        String key = keyFor(url);
+        Entry entry = mEntries.remove(key);
+        if (entry != null) mTotalBytes -= entry.size;
+        deleteFiles(key);
+        saveIndex();
+        notifyRemoved(key);
+    }
+
+    /**
+     * Change the disk quota, evicting fonts if the new quota is smaller
+     *
+     * @param maxBytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+        mMaxBytes = maxBytes;
+        if (trimToSize(null)) saveIndex();
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return the bytes used by all stored fonts
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return the number of stored fonts
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Write out the index, including any access times recorded since the last change
+     */
+    public synchronized void flush() {
+        saveIndex();
+    }
+
+    /**
+     * Evict least recently used fonts until we're within quota
+     *
+     * @param keep a key that must not be evicted (the font just added), or null
+     * @return true if anything was evicted
+     */
+    private boolean trimToSize(String keep) {
+        boolean evicted = false;
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) continue;
+
+            iterator.remove();
+            mTotalBytes -= eldest.getValue().size;
+            deleteFiles(eldest.getKey());
+            notifyRemoved(eldest.getKey());
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    /**
+     * Delete a font along with the download bookkeeping stored next to it
+     */
+    private void deleteFiles(String key) {
+        File file = new File(mDirectory, key);
+        File partial = FontDownloader.partialFileFor(file);
+        file.delete();
+        FontMetadata.delete(file);
+        partial.delete();
+        FontMetadata.delete(partial);
+    }
+
+    private void notifyRemoved(String key) {
+        Listener listener = mListener;
+        if (listener != null) listener.onRemoved(key);
+    }
+
+    /**
+     * Read the index: one "key size lastAccess" line per font, least recently used first
+     *
+     * @return false if there's no usable index
+     */
+    private boolean loadIndex() {
+        File index = new File(mDirectory, INDEX_FILE);
+        if (!index.exists()) return false;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+            if (!INDEX_HEADER.equals(reader.readLine())) return false;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length != 3 || !isKey(fields[0])) continue;
+
+                Entry entry = new Entry();
+                entry.size = Long.parseLong(fields[1]);
+                entry.lastAccess = Long.parseLong(fields[2]);
+                mEntries.put(fields[0], entry);
+                mTotalBytes += entry.size;
+            }
+            return true;
+        } catch (Exception e) {
+            // A damaged index is rebuilt from the directory
+            mEntries.clear();
+            mTotalBytes = 0;
+            return false;
+        } finally {
+            FontDownloader.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Write the index, replacing the old one atomically
+     */
+    private void saveIndex() {
+        File index = new File(mDirectory, INDEX_FILE);
+        File temp = new File(mDirectory, INDEX_FILE + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            StringBuilder line = new StringBuilder();
+            line.append(INDEX_HEADER).append('\n');
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                line.append(entry.getKey()).append(' ').append(entry.getValue().size).append(' ')
+                        .append(entry.getValue().lastAccess).append('\n');
+            }
+            writer.write(line.toString());
+            writer.close();
+            writer = null;
+            if (!temp.renameTo(index)) temp.delete();
+        } catch (IOException e) {
+            // The in-memory index is still right. We'll try again on the next change.
+            e.printStackTrace();
+        } finally {
+            FontDownloader.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * With no index (first run, or a damaged index), take stock of fonts already in the directory.
+     * Oldest modification time is treated as least recently used.
+     */
+    private void adoptExistingFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        List<File> fonts = new ArrayList<File>();
+        for (File file : files)
+            if (file.isFile() && isKey(file.getName())) fonts.add(file);
+
+        // Insert oldest first so access order matches
+        Collections.sort(fonts, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File font : fonts) {
+            Entry entry = new Entry();
+            entry.size = font.length();
+            entry.lastAccess = font.lastModified();
+            mEntries.put(font.getName(), entry);
+            mTotalBytes += entry.size;
+        }
+
+        trimToSize(null);
+        saveIndex();
+    }
+
+    private static boolean isKey(String name) {
+        if (name.length() != KEY_LENGTH) return false;
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,506 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cuts a TrueType font down to the glyphs for a set of code points. Icon fonts carry hundreds of
+ * glyphs while an app draws a few dozen, and a decoded Typeface holds on to all of them.
+ * <p>
+ * The subset keeps the missing glyph, the glyphs the code points map to and any glyphs those are
+ * built from, renumbered in their original order. cmap, glyf, loca, hmtx, maxp, hhea and head are
+ * rebuilt to match, post keeps its metrics but drops glyph names, and hinting, naming and OS/2
+ * tables are copied as they are. Tables that refer to glyphs by number in ways we don't rewrite
+ * (layout, kerning, device metrics, signatures) are dropped. Glyph shapes and advances are
+ * unchanged, so the glyphs that are kept draw exactly as they did.
+ * <p>
+ * Only glyf outlines are understood. CFF fonts and collections are refused.
+ */
+public final class FontSubsetter {
+
+    private static final int TAG_CMAP = 0x636D6170; // 'cmap'
+    private static final int TAG_CVT = 0x63767420; // 'cvt '
+    private static final int TAG_FPGM = 0x6670676D; // 'fpgm'
+    private static final int TAG_GASP = 0x67617370; // 'gasp'
+    private static final int TAG_GLYF = 0x676C7966; // 'glyf'
+    private static final int TAG_HEAD = 0x68656164; // 'head'
+    private static final int TAG_HHEA = 0x68686561; // 'hhea'
+    private static final int TAG_HMTX = 0x686D7478; // 'hmtx'
+    private static final int TAG_LOCA = 0x6C6F6361; // 'loca'
+    private static final int TAG_MAXP = 0x6D617870; // 'maxp'
+    private static final int TAG_NAME = 0x6E616D65; // 'name'
+    private static final int TAG_OS2 = 0x4F532F32; // 'OS/2'
+    private static final int TAG_POST = 0x706F7374; // 'post'
+    private static final int TAG_PREP = 0x70726570; // 'prep'
+
+    // Don't depend on glyph numbering, so they're copied untouched
+    private static final int[] COPIED_TABLES = { TAG_CVT, TAG_FPGM, TAG_GASP, TAG_NAME, TAG_OS2, TAG_PREP };
+
+    private static final int VERSION_TRUETYPE = 0x00010000;
+    private static final int VERSION_APPLE = 0x74727565; // 'true'
+
+    private static final int HEAD_CHECKSUM_ADJUSTMENT = 8;
+    private static final int HEAD_INDEX_TO_LOC_FORMAT = 50;
+    private static final int HHEA_NUMBER_OF_H_METRICS = 34;
+    private static final int MAXP_NUM_GLYPHS = 4;
+    private static final int POST_HEADER_SIZE = 32;
+    private static final int POST_VERSION_3 = 0x00030000;
+    private static final int CHECKSUM_MAGIC = 0xB1B0AFBA;
+
+    // Composite glyph component flags
+    private static final int ARG_1_AND_2_ARE_WORDS = 0x0001;
+    private static final int WE_HAVE_A_SCALE = 0x0008;
+    private static final int MORE_COMPONENTS = 0x0020;
+    private static final int WE_HAVE_AN_X_AND_Y_SCALE = 0x0040;
+    private static final int WE_HAVE_A_TWO_BY_TWO = 0x0080;
+
+    private static final int PLATFORM_WINDOWS = 3;
+    private static final int ENCODING_UNICODE_BMP = 1;
+    private static final int ENCODING_UNICODE_FULL = 10;
+
+    private FontSubsetter() {
+    }
+
+    /**
+     * Subset a font file
+     *
+     * @param fontFile
+     * @param codePoints the code points to keep. Ones the font doesn't have are ignored.
+     * @return the subset font
+     * @throws IOException if the font can't be read or isn't one we can subset
+     */
+    public static byte[] subset(File fontFile, GlyphCoverage codePoints) throws IOException {
+        FileInputStream inputStream = new FileInputStream(fontFile);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            return subset(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), codePoints);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Subset a font held in a buffer. The buffer's position and limit mark out the font; neither is
+     * changed.
+     *
+     * @param font
+     * @param codePoints the code points to keep. Ones the font doesn't have are ignored.
+     * @return the subset font
+     * @throws IOException if the font isn't one we can subset
+     */
+    public static byte[] subset(ByteBuffer font, GlyphCoverage codePoints) throws IOException {
+        try {
+            return new Subset(font.slice(), codePoints).build();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt font");
+        }
+    }
+
+    /**
+     * The work of subsetting one font
+     */
+    private static class Subset {
+        private final ByteBuffer mFont;
+        private final GlyphCoverage mCodePoints;
+
+        private int mGlyphCount;
+        private int mHorizontalMetricsCount;
+        private boolean mLongOffsets;
+        private int mGlyf;
+        private int mLoca;
+        private int mHmtx;
+
+        // Old glyph id to new glyph id, or -1 for glyphs that aren't kept
+        private int[] mNewIds;
+        // Kept glyphs' old ids, in new id order
+        private int[] mKeptGlyphs;
+
+        Subset(ByteBuffer font, GlyphCoverage codePoints) {
+            mFont = font;
+            mCodePoints = codePoints;
+        }
+
+        byte[] build() throws IOException {
+            int version = mFont.getInt(0);
+            if (version != VERSION_TRUETYPE && version != VERSION_APPLE) throw new IOException("Only TrueType fonts can be subset");
+
+            int cmap = requireTable(TAG_CMAP);
+            int head = requireTable(TAG_HEAD);
+            int hhea = requireTable(TAG_HHEA);
+            int maxp = requireTable(TAG_MAXP);
+            mHmtx = requireTable(TAG_HMTX);
+            mLoca = requireTable(TAG_LOCA);
+            mGlyf = requireTable(TAG_GLYF);
+
+            mGlyphCount = mFont.getShort(maxp + MAXP_NUM_GLYPHS) & 0xFFFF;
+            mHorizontalMetricsCount = mFont.getShort(hhea + HHEA_NUMBER_OF_H_METRICS) & 0xFFFF;
+            mLongOffsets = mFont.getShort(head + HEAD_INDEX_TO_LOC_FORMAT) != 0;
+            if (mHorizontalMetricsCount == 0) throw new IOException("No horizontal metrics");
+
+            // Pick the glyphs, then everything they're built from
+            int[] codePointGlyphs = selectGlyphs(cmap);
+            closeOverComponents();
+            numberKeptGlyphs();
+
+            List<Table> tables = new ArrayList<Table>();
+            byte[][] glyfAndLoca = buildGlyfAndLoca();
+            tables.add(new Table(TAG_GLYF, glyfAndLoca[0]));
+            tables.add(new Table(TAG_LOCA, glyfAndLoca[1]));
+            tables.add(new Table(TAG_HMTX, buildHmtx()));
+            tables.add(new Table(TAG_CMAP, buildCmap(codePointGlyphs)));
+
+            byte[] headData = copyTable(TAG_HEAD);
+            ByteBuffer.wrap(headData).putShort(HEAD_INDEX_TO_LOC_FORMAT, (short) 1).putInt(HEAD_CHECKSUM_ADJUSTMENT, 0);
+            Table headTable = new Table(TAG_HEAD, headData);
+            tables.add(headTable);
+
+            byte[] hheaData = copyTable(TAG_HHEA);
+            ByteBuffer.wrap(hheaData).putShort(HHEA_NUMBER_OF_H_METRICS, (short) mKeptGlyphs.length);
+            tables.add(new Table(TAG_HHEA, hheaData));
+
+            byte[] maxpData = copyTable(TAG_MAXP);
+            ByteBuffer.wrap(maxpData).putShort(MAXP_NUM_GLYPHS, (short) mKeptGlyphs.length);
+            tables.add(new Table(TAG_MAXP, maxpData));
+
+            // Glyph names are indexed by glyph, and nothing needs them to draw
+            byte[] postData = copyTable(TAG_POST);
+            if (postData != null && postData.length >= POST_HEADER_SIZE) {
+                postData = Arrays.copyOf(postData, POST_HEADER_SIZE);
+                ByteBuffer.wrap(postData).putInt(0, POST_VERSION_3);
+                tables.add(new Table(TAG_POST, postData));
+            }
+
+            for (int tag : COPIED_TABLES) {
+                byte[] data = copyTable(tag);
+                if (data != null) tables.add(new Table(tag, data));
+            }
+
+            return write(version, tables, headTable);
+        }
+
+        /**
+         * Mark the missing glyph and each code point's glyph as kept
+         *
+         * @return the old glyph for each code point we keep, indexed in code point order
+         */
+        private int[] selectGlyphs(int cmap) {
+            mNewIds = new int[mGlyphCount];
+            Arrays.fill(mNewIds, -1);
+            // The missing glyph is always glyph 0, and always kept
+            mNewIds[0] = 0;
+
+            int[] glyphs = new int[mCodePoints.size()];
+            int index = 0;
+            for (int codePoint = mCodePoints.nextCodePoint(0); codePoint >= 0; codePoint = mCodePoints.nextCodePoint(codePoint + 1)) {
+                int glyph = CmapParser.glyphFor(mFont, cmap, codePoint);
+                if (glyph >= mGlyphCount) glyph = 0;
+                glyphs[index++] = glyph;
+                mNewIds[glyph] = 0;
+            }
+            return glyphs;
+        }
+
+        /**
+         * Keep every glyph a kept composite glyph is built from, however deeply nested
+         */
+        private void closeOverComponents() {
+            int[] pending = new int[mGlyphCount];
+            int pendingCount = 0;
+            for (int glyph = 0; glyph < mGlyphCount; glyph++)
+                if (mNewIds[glyph] == 0) pending[pendingCount++] = glyph;
+
+            while (pendingCount > 0) {
+                int glyph = pending[--pendingCount];
+                int start = glyphOffset(glyph);
+                if (glyphOffset(glyph + 1) <= start || mFont.getShort(start) >= 0) continue;
+
+                int component = start + 10;
+                int flags;
+                do {
+                    flags = mFont.getShort(component) & 0xFFFF;
+                    int componentGlyph = mFont.getShort(component + 2) & 0xFFFF;
+                    if (componentGlyph < mGlyphCount && mNewIds[componentGlyph] < 0) {
+                        mNewIds[componentGlyph] = 0;
+                        pending[pendingCount++] = componentGlyph;
+                    }
+                    component += componentSize(flags);
+                } while ((flags & MORE_COMPONENTS) != 0);
+            }
+        }
+
+        /**
+         * Give the kept glyphs new ids, in their original order
+         */
+        private void numberKeptGlyphs() {
+            int keptCount = 0;
+            for (int glyph = 0; glyph < mGlyphCount; glyph++)
+                if (mNewIds[glyph] >= 0) keptCount++;
+
+            mKeptGlyphs = new int[keptCount];
+            int newId = 0;
+            for (int glyph = 0; glyph < mGlyphCount; glyph++) {
+                if (mNewIds[glyph] < 0) continue;
+                mNewIds[glyph] = newId;
+                mKeptGlyphs[newId++] = glyph;
+            }
+        }
+
+        /**
+         * Copy the kept glyphs' outlines, pointing composites at their components' new ids
+         *
+         * @return {glyf, loca}
+         */
+        private byte[][] buildGlyfAndLoca() {
+            int glyfLength = 0;
+            for (int glyph : mKeptGlyphs)
+                glyfLength += padded(glyphOffset(glyph + 1) - glyphOffset(glyph));
+
+            ByteBuffer glyf = ByteBuffer.allocate(glyfLength);
+            // Always long offsets. Short ones would save a few bytes on a font this small.
+            ByteBuffer loca = ByteBuffer.allocate((mKeptGlyphs.length + 1) * 4);
+            for (int glyph : mKeptGlyphs) {
+                loca.putInt(glyf.position());
+                int start = glyphOffset(glyph);
+                int length = glyphOffset(glyph + 1) - start;
+                if (length <= 0) continue;
+
+                int glyphStart = glyf.position();
+                ByteBuffer source = mFont.duplicate();
+                source.limit(start + length).position(start);
+                glyf.put(source);
+                if (glyf.getShort(glyphStart) < 0) renumberComponents(glyf, glyphStart);
+                glyf.position(glyphStart + padded(length));
+            }
+            loca.putInt(glyf.position());
+            return new byte[][] { glyf.array(), loca.array() };
+        }
+
+        private void renumberComponents(ByteBuffer glyf, int glyphStart) {
+            int component = glyphStart + 10;
+            int flags;
+            do {
+                flags = glyf.getShort(component) & 0xFFFF;
+                int componentGlyph = glyf.getShort(component + 2) & 0xFFFF;
+                int newId = componentGlyph < mGlyphCount ? mNewIds[componentGlyph] : 0;
+                glyf.putShort(component + 2, (short) newId);
+                component += componentSize(flags);
+            } while ((flags & MORE_COMPONENTS) != 0);
+        }
+
+        /**
+         * Every kept glyph gets a full advance and left side bearing
+         */
+        private byte[] buildHmtx() {
+            ByteBuffer hmtx = ByteBuffer.allocate(mKeptGlyphs.length * 4);
+            int lastAdvance = mHmtx + (mHorizontalMetricsCount - 1) * 4;
+            for (int glyph : mKeptGlyphs) {
+                if (glyph < mHorizontalMetricsCount) {
+                    hmtx.putInt(mFont.getInt(mHmtx + glyph * 4));
+                } else {
+                    // Past the long metrics, glyphs share the last advance and only have a bearing
+                    hmtx.putShort(mFont.getShort(lastAdvance));
+                    hmtx.putShort(mFont.getShort(mHmtx + mHorizontalMetricsCount * 4 + (glyph - mHorizontalMetricsCount) * 2));
+                }
+            }
+            return hmtx.array();
+        }
+
+        /**
+         * A Windows Unicode cmap: format 4 for the basic multilingual plane, plus format 12 if any
+         * code point is beyond it
+         */
+        private byte[] buildCmap(int[] codePointGlyphs) throws IOException {
+            // Runs of consecutive code points on consecutive glyphs share a segment
+            List<int[]> groups = new ArrayList<int[]>();
+            boolean supplementary = false;
+            int index = 0;
+            int[] group = null;
+            for (int codePoint = mCodePoints.nextCodePoint(0); codePoint >= 0; codePoint = mCodePoints.nextCodePoint(codePoint + 1)) {
+                int glyph = codePointGlyphs[index++];
+                if (glyph == 0) continue;
+                int newId = mNewIds[glyph];
+                if (codePoint > 0xFFFF) supplementary = true;
+                if (group != null && codePoint == group[1] + 1 && newId == group[2] + codePoint - group[0]
+                        && (codePoint > 0xFFFF) == (group[0] > 0xFFFF)) {
+                    group[1] = codePoint;
+                } else {
+                    group = new int[] { codePoint, codePoint, newId };
+                    groups.add(group);
+                }
+            }
+
+            byte[] format4 = buildFormat4(groups);
+            byte[] format12 = supplementary ? buildFormat12(groups) : null;
+
+            int subtableCount = supplementary ? 2 : 1;
+            int headerSize = 4 + subtableCount * 8;
+            ByteBuffer cmap = ByteBuffer.allocate(headerSize + format4.length + (format12 != null ? format12.length : 0));
+            cmap.putShort((short) 0);
+            cmap.putShort((short) subtableCount);
+            cmap.putShort((short) PLATFORM_WINDOWS).putShort((short) ENCODING_UNICODE_BMP).putInt(headerSize);
+            if (format12 != null)
+                cmap.putShort((short) PLATFORM_WINDOWS).putShort((short) ENCODING_UNICODE_FULL).putInt(headerSize + format4.length);
+            cmap.put(format4);
+            if (format12 != null) cmap.put(format12);
+            return cmap.array();
+        }
+
+        private byte[] buildFormat4(List<int[]> groups) throws IOException {
+            List<int[]> segments = new ArrayList<int[]>();
+            for (int[] group : groups)
+                if (group[0] <= 0xFFFF) segments.add(group);
+            // The required terminator
+            segments.add(new int[] { 0xFFFF, 0xFFFF, 0 });
+
+            int segmentCount = segments.size();
+            int length = 16 + segmentCount * 8;
+            if (length > 0xFFFF) throw new IOException("Too many code points for a format 4 cmap");
+
+            int entrySelector = 31 - Integer.numberOfLeadingZeros(segmentCount);
+            int searchRange = 2 << entrySelector;
+            ByteBuffer subtable = ByteBuffer.allocate(length);
+            subtable.putShort((short) 4).putShort((short) length).putShort((short) 0);
+            subtable.putShort((short) (segmentCount * 2)).putShort((short) searchRange).putShort((short) entrySelector)
+                    .putShort((short) (segmentCount * 2 - searchRange));
+            for (int[] segment : segments)
+                subtable.putShort((short) segment[1]);
+            subtable.putShort((short) 0);
+            for (int[] segment : segments)
+                subtable.putShort((short) segment[0]);
+            for (int[] segment : segments)
+                // Glyph ids wrap around at 0x10000, so the terminator's delta of 1 maps it to 0
+                subtable.putShort((short) (segment[0] == 0xFFFF ? 1 : segment[2] - segment[0]));
+            for (int i = 0; i < segmentCount; i++)
+                subtable.putShort((short) 0);
+            return subtable.array();
+        }
+
+        private byte[] buildFormat12(List<int[]> groups) {
+            ByteBuffer subtable = ByteBuffer.allocate(16 + groups.size() * 12);
+            subtable.putShort((short) 12).putShort((short) 0).putInt(subtable.capacity()).putInt(0).putInt(groups.size());
+            for (int[] group : groups)
+                subtable.putInt(group[0]).putInt(group[1]).putInt(group[2]);
+            return subtable.array();
+        }
+
+        /**
+         * Lay the tables out in a new font, sorted by tag, and fill in head's checksum adjustment
+         */
+        private byte[] write(int version, List<Table> tables, Table head) {
+            Table[] sorted = tables.toArray(new Table[tables.size()]);
+            Arrays.sort(sorted);
+
+            int tableCount = sorted.length;
+            int offset = 12 + tableCount * 16;
+            int length = offset;
+            for (Table table : sorted)
+                length += padded(table.data.length);
+
+            ByteBuffer font = ByteBuffer.allocate(length);
+            int entrySelector = 31 - Integer.numberOfLeadingZeros(tableCount);
+            int searchRange = (1 << entrySelector) * 16;
+            font.putInt(version).putShort((short) tableCount).putShort((short) searchRange).putShort((short) entrySelector)
+                    .putShort((short) (tableCount * 16 - searchRange));
+
+            int headOffset = 0;
+            for (Table table : sorted) {
+                font.putInt(table.tag).putInt(checksum(table.data, 0, table.data.length)).putInt(offset).putInt(table.data.length);
+                if (table == head) headOffset = offset;
+                offset += padded(table.data.length);
+            }
+            for (Table table : sorted) {
+                font.put(table.data);
+                font.position(font.position() + padded(table.data.length) - table.data.length);
+            }
+
+            byte[] bytes = font.array();
+            font.putInt(headOffset + HEAD_CHECKSUM_ADJUSTMENT, CHECKSUM_MAGIC - checksum(bytes, 0, bytes.length));
+            return bytes;
+        }
+
+        private int requireTable(int tag) throws IOException {
+            int offset = CmapParser.findTable(mFont, 0, tag);
+            if (offset < 0) throw new IOException("Font has no '" + tagName(tag) + "' table");
+            return offset;
+        }
+
+        /**
+         * @return a copy of a table, or null if the font doesn't have it
+         */
+        private byte[] copyTable(int tag) {
+            int tableCount = mFont.getShort(4) & 0xFFFF;
+            for (int i = 0; i < tableCount; i++) {
+                int record = 12 + i * 16;
+                if (mFont.getInt(record) != tag) continue;
+                byte[] data = new byte[mFont.getInt(record + 12)];
+                ByteBuffer source = mFont.duplicate();
+                source.position(mFont.getInt(record + 8));
+                source.get(data);
+                return data;
+            }
+            return null;
+        }
+
+        private int glyphOffset(int glyph) {
+            int offset = mLongOffsets ? mFont.getInt(mLoca + glyph * 4) : (mFont.getShort(mLoca + glyph * 2) & 0xFFFF) * 2;
+            return mGlyf + offset;
+        }
+    }
+
+    /**
+     * @return how many bytes a composite glyph component takes, from its flags
+     */
+    private static int componentSize(int flags) {
+        int size = 4 + ((flags & ARG_1_AND_2_ARE_WORDS) != 0 ? 4 : 2);
+        if ((flags & WE_HAVE_A_SCALE) != 0) size += 2;
+        else if ((flags & WE_HAVE_AN_X_AND_Y_SCALE) != 0) size += 4;
+        else if ((flags & WE_HAVE_A_TWO_BY_TWO) != 0) size += 8;
+        return size;
+    }
+
+    // A table of the font being written
+    private static class Table implements Comparable<Table> {
+        final int tag;
+        final byte[] data;
+
+        Table(int tag, byte[] data) {
+            this.tag = tag;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Table other) {
+            // Tags sort as unsigned, but all real tags are printable ASCII
+            return tag < other.tag ? -1 : tag > other.tag ? 1 : 0;
+        }
+    }
+
+    /**
+     * The sfnt checksum: the sum of the data as big endian 32 bit words, zero padded
+     */
+    private static int checksum(byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i += 4) {
+            int word = 0;
+            for (int j = 0; j < 4; j++)
+                word = (word << 8) | (i + j < length ? data[offset + i + j] & 0xFF : 0);
+            sum += word;
+        }
+        return sum;
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static String tagName(int tag) {
+        return new String(new char[] { (char) (tag >>> 24), (char) ((tag >> 16) & 0xFF), (char) ((tag >> 8) & 0xFF), (char) (tag & 0xFF) });
+    }
+
+}
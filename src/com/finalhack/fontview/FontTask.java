@@ -0,0 +1,124 @@
+package com.finalhack.fontview;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * A unit of font work run by the {@link FontExecutor}. Like an AsyncTask, the work happens in
+ * {@link #doInBackground()} and the result is handed back on the main thread in
+ * {@link #onPostExecute()}. Unlike an AsyncTask, it has a priority and can be cancelled cheaply
+ * while it's still queued.
+ */
+public abstract class FontTask implements Comparable<FontTask> {
+
+    // Lower values run first
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_DEFAULT = 5;
+    public static final int PRIORITY_PREFETCH = 10;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_FINISHED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    // Keeps tasks with equal priorities in submission order
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final AtomicInteger mState = new AtomicInteger(STATE_PENDING);
+    private volatile int mPriority = PRIORITY_DEFAULT;
+    private volatile long mSequence = SEQUENCE.getAndIncrement();
+    // Where this task is queued, so cancelling can pull it back out
+    private volatile FontExecutor mExecutor;
+
+    /**
+     * Do the work. Called on a font worker thread.
+     */
+    protected abstract void doInBackground();
+
+    /**
+     * Hand back the result. Called on the main thread, unless the task was cancelled.
+     */
+    protected void onPostExecute() {
+    }
+
+    /**
+     * Stop this task if it hasn't started, so it never will. A task that's already running is
+     * left to finish and deliver its result, since others may be waiting on it.
+     *
+     * @return true if the task was cancelled before it started
+     */
+    public boolean cancel() {
+        if (!mState.compareAndSet(STATE_PENDING, STATE_CANCELLED)) return false;
+        FontExecutor executor = mExecutor;
+        if (executor != null) executor.remove(this);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return mState.get() == STATE_CANCELLED;
+    }
+
+    /**
+     * @return true once the task has either delivered its result or been cancelled
+     */
+    public boolean isDone() {
+        int state = mState.get();
+        return state == STATE_FINISHED || state == STATE_CANCELLED;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return false if someone is waiting on this task, so it mustn't be dropped when the queue
+     *         is full
+     */
+    protected boolean isDroppable() {
+        return true;
+    }
+
+    /* package */void setExecutor(FontExecutor executor) {
+        mExecutor = executor;
+    }
+
+    /* package */void setPriority(int priority) {
+        mPriority = priority;
+        // Re-prioritized tasks take their turn behind others already at that priority
+        mSequence = SEQUENCE.getAndIncrement();
+    }
+
+    /**
+     * Called by the executor on a worker thread
+     */
+    /* package */final void run() {
+        if (!mState.compareAndSet(STATE_PENDING, STATE_RUNNING)) return;
+
+        try {
+            doInBackground();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // Hop back to the main thread to deliver, unless we were cancelled in the meantime
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState.compareAndSet(STATE_RUNNING, STATE_FINISHED)) onPostExecute();
+            }
+        });
+    }
+
+    @Override
+    public int compareTo(FontTask other) {
+        if (mPriority != other.mPriority) return mPriority < other.mPriority ? -1 : 1;
+        if (mSequence != other.mSequence) return mSequence < other.mSequence ? -1 : 1;
+        return 0;
+    }
+
+}
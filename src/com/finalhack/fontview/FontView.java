@@ -1,19 +1,19 @@
 package com.finalhack.fontview;
 
 import java.io.File;
-import java.security.MessageDigest;
+import java.util.Collection;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Picture;
 import android.graphics.Rect;
-import android.graphics.RectF;
-import android.graphics.Shader;
 import android.graphics.Typeface;
+import android.os.Debug;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -21,9 +21,6 @@ import android.view.View;
 
 public class FontView extends View {
 
-    private static final int HALF_CIRCLE_SWEEP_DISTANCE = 180;
-    private static final int HALF_CIRCLE_TOP_START = 180;
-    private static final int HALF_CIRCLE_BOTTOM_START = 0;
     private static final int TOP = 0;
     private static final int LEFT = 0;
 
@@ -32,13 +29,8 @@ public class FontView extends View {
     public static final String BUNDLE_KEY_CANVAS = "canvas";
 
     // Metrics for calculating and placing glyphs
-    private int mMidX;
-    private int mMidY;
     private int mHeight;
     private int mWidth;
-    private int textSize;
-    private int mWidthDifferential;
-    private int mHeightDifferential;
     private Integer mForegroundColor = null;
     private Integer mBackgroundColor = null;
     private Integer mOuterColor = null;
@@ -49,45 +41,72 @@ public class FontView extends View {
     private double mFontSizeMultiplier = 1.0;
 
     /* package */static boolean mDebugEnabled = false;
+
+    // Shared rendered glyph images. Null when render caching is disabled.
+    private static volatile GlyphBitmapCache sRenderCache;
+    // Shared glyph atlases. Null when atlas mode is disabled.
+    private static volatile GlyphAtlasCache sAtlasCache;
+    // Shared glyph outlines. Null when outline drawing is disabled.
+    private static volatile GlyphPathCache sOutlineCache;
+    // Shared glyph recordings. Null when picture caching is disabled.
+    private static volatile GlyphPictureCache sPictureCache;
+    // Render sizes cached glyphs are rounded up to. Null when sizes are rendered exactly.
+    private static volatile SizeBuckets sSizeBuckets;
     private int mDebugIndicatorWidth = 20;
     private DisplayMetrics mDisplayMetrics = getResources().getDisplayMetrics();
 
     // The character we're writing
-    // This is a String to allow HTML entities
+    // This is given as a String to allow HTML entities, which are decoded in setupFont
     private String mCharacter;
+    // The first code point of mCharacter, or -1 if there isn't one
+    private int mCodePoint = -1;
+    // Drawn instead of mCharacter when the font has no glyph for it
+    private String mFallbackCharacter;
+    // What we're actually drawing this frame: mCharacter, mFallbackCharacter or nothing
+    private String mDrawCharacter;
 
-    private String mFontLocation;
-    private LocationType mFontLocationType;
-    private File mFontFile;
+    // Where our font comes from. Null until setupFont is called.
+    private FontSource mFontSource;
 
     // Color and drawing resources
-    private Paint mForegroundPaint = new Paint();
-    private Paint mBackgroundPaint = new Paint();
-    private Paint mBackgroundGradientPaint = new Paint();
-    private Paint mOuterPaint = new Paint();
-    private Paint mBottomHalfPaint = new Paint();
+    private GlyphRenderer mRenderer = new GlyphRenderer();
     private Paint mDebugPaint = new Paint();
+    // Smooths cached glyphs rendered at a bucket size as they're scaled down to ours
+    private Paint mBucketPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Path mDebugPath;
     private Canvas mExternalCanvas;
     private ImageType mType;
 
     // A safe context
     private Context mApplicationContext;
 
-    // IPC callback hand off mechanism
-    public FontReceiver mFontReceiver = new FontReceiver(getHandler(), this);
+    // The network font we're waiting for in the FontWaiterRegistry, if any
+    /* package */String mAwaitedUrl;
+    // Set while we're waiting for the RenderScheduler's next frame
+    /* package */boolean mRefreshScheduled;
+
+    // Everything about how we look, rebuilt only when a setting changes. Null when stale.
+    private GlyphKey mGlyphKey;
+    // The same, without a character, for finding our atlas
+    private GlyphKey mAtlasStyle;
+    // The same, at our bucket's size, and the buckets it was rounded with
+    private GlyphKey mBucketKey;
+    private SizeBuckets mBucketKeyBuckets;
+    // GlyphRenderer.DIRTY_* flags for what changed since we last drew
+    private int mDirty = GlyphRenderer.DIRTY_ALL;
 
     // Cache some Rect objects to avoid excessive allocation
-    private Rect squareRect = null;
-    private Rect squareRectA = null;
-    private Rect squareRectB = null;
-    private RectF circleRectA = null;
-    private RectF circleRectB = null;
-
-    // Pre-allocate...
-    private Paint.FontMetrics metrics = new Paint.FontMetrics();
-
-    // Cache our font
-    private static Typeface mTypeFace;
+    private Rect mAtlasSource = new Rect();
+    private Rect mAtlasDestination = new Rect();
+    private Rect mBucketDestination = new Rect();
+
+    // The font this view draws with, shared through the TypefaceRegistry
+    private Typeface mTypeFace;
+    private String mFontKey;
+    // The font's generation when we got mTypeFace. A newer one means its bytes have changed.
+    private int mFontGeneration;
+    // Which code points the font has glyphs for, cached with the font. Null if unknown.
+    private GlyphCoverage mCoverage;
 
     /**
      * Required constructor from super class
@@ -128,10 +147,13 @@ public class FontView extends View {
      * @param fontFile
      */
     public void setupFont(File fontFile, String character, ImageType type) {
-        mFontFile = fontFile;
-        mFontLocationType = LocationType.FILE;
-        mCharacter = character;
+        setFontSource(FontSource.forFile(mApplicationContext, fontFile));
+        setCharacter(character);
         mType = type;
+        // A new font is noticed by the renderer itself
+        invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        // Parent layouts may still be under construction. Refresh once they're done.
+        RenderScheduler.getInstance().schedule(this);
     }
 
     /**
@@ -141,10 +163,13 @@ public class FontView extends View {
      * @param mIsNetworkHttps
      */
     public void setupFont(String networkLocation, boolean mIsNetworkHttps, String character, ImageType type) {
-        mFontLocation = networkLocation;
-        mFontLocationType = LocationType.NETWORK;
-        mCharacter = character;
+        setFontSource(FontSource.forUrl(mApplicationContext, networkLocation));
+        setCharacter(character);
         mType = type;
+        // A new font is noticed by the renderer itself
+        invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        // Parent layouts may still be under construction. Refresh once they're done.
+        RenderScheduler.getInstance().schedule(this);
     }
 
     /**
@@ -153,18 +178,219 @@ public class FontView extends View {
      * @param assetLocation
      */
     public void setupFont(String assetLocation, String character, ImageType type) {
-        mFontLocation = assetLocation;
-        mFontLocationType = LocationType.ASSET;
-        mCharacter = character;
+        setFontSource(FontSource.forAsset(mApplicationContext, assetLocation));
+        setCharacter(character);
+        mType = type;
+        // A new font is noticed by the renderer itself
+        invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        // Parent layouts may still be under construction. Refresh once they're done.
+        RenderScheduler.getInstance().schedule(this);
+    }
+
+    /**
+     * When needed, pull the font from a font pack on the file system. Only the pack's index and
+     * the chosen font are read.
+     *
+     * @param packFile written by {@link FontPackWriter}
+     * @param fontName the name the font was added to the pack under
+     */
+    public void setupFont(File packFile, String fontName, String character, ImageType type) {
+        setFontSource(FontSource.forPack(mApplicationContext, packFile, fontName));
+        setCharacter(character);
         mType = type;
+        // A new font is noticed by the renderer itself
+        invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        // Parent layouts may still be under construction. Refresh once they're done.
+        RenderScheduler.getInstance().schedule(this);
+    }
+
+    /**
+     * Decode the character we were given (e.g. an HTML entity) once, here, rather than on every
+     * draw. Recycled views showing the same string reuse the earlier result.
+     *
+     * @param character
+     */
+    private void setCharacter(String character) {
+        EntityResolver resolver = EntityResolver.getInstance();
+        mCharacter = resolver.resolve(character);
+        mCodePoint = resolver.resolveCodePoint(character);
+    }
+
+    /**
+     * Remember which font we're using. Recycled views may switch fonts, so forget the old
+     * Typeface when that happens.
+     *
+     * @param fontSource
+     */
+    private void setFontSource(FontSource fontSource) {
+        mFontSource = fontSource;
+        String fontKey = fontSource.getKey();
+        if (!fontKey.equals(mFontKey)) {
+            // Pick up the font (and its coverage) right away if someone already decoded it, so
+            // callers can check hasGlyph straight after setupFont
+            TypefaceRegistry registry = TypefaceRegistry.getInstance();
+            mFontGeneration = registry.getGeneration(fontKey);
+            mTypeFace = registry.get(fontKey);
+            mCoverage = registry.getCoverage(fontKey);
+            // We no longer need the old font
+            stopWaiting();
+        }
+        mFontKey = fontKey;
+    }
+
+    /**
+     * Forget our GlyphKey, so it's rebuilt with current settings on the next draw, and note what
+     * the renderer has to recompute. Called whenever something that changes how we look is set.
+     *
+     * @param dirty GlyphRenderer.DIRTY_* flags
+     */
+    private void invalidateGlyphKey(int dirty) {
+        mGlyphKey = null;
+        mAtlasStyle = null;
+        mBucketKey = null;
+        mDirty |= dirty;
+    }
+
+    /**
+     * @return a key describing what we're drawing this frame
+     */
+    private GlyphKey getGlyphKey() {
+        GlyphKey key = mGlyphKey;
+        // The draw character can change on its own, e.g. once the font's coverage is known
+        if (key == null || !key.getCharacter().equals(mDrawCharacter)) {
+            if (key != null) mDirty |= GlyphRenderer.DIRTY_LAYOUT;
+            key = mGlyphKey = new GlyphKey(mFontKey, mFontGeneration, mDrawCharacter, mType, mForegroundColor, mBackgroundColor,
+                    mOuterColor, mBottomHalfColor, mHasBackgroundGradient, mXOffset, mYOffset, mFontSizeMultiplier, mWidth, mHeight);
+        }
+        return key;
     }
 
     /**
      * Normally network fonts are lazy loaded. Call this to get the font before it is needed, which
-     * could cut down on image display delay.
+     * could cut down on image display delay. To fetch several fonts with priorities, bounded
+     * parallelism and a handle per font, use a {@link FontPrefetcher}.
      */
     public static void preFetchNetworkFont(Context applicationContext, String fontLocation) {
-        new FontNetworkTask(applicationContext, null, fontLocation).execute();
+        // Prefetches wait behind work for views that are on screen
+        FontWaiterRegistry.getInstance().prefetch(applicationContext.getApplicationContext(), fontLocation);
+    }
+
+    /**
+     * Declare which code points an asset font is used for. The font is then decoded from a subset
+     * holding only those glyphs, which for a large icon font can be a small fraction of the memory.
+     * The subset is made once and kept in the cache directory. Best called at startup, before the
+     * font is first used; a font already decoded is dropped from the registry, along with glyphs
+     * cached from it, so the next load picks up the subset. Only TrueType (glyf) fonts can be
+     * subset; others are used whole.
+     *
+     * @param assetLocation
+     * @param codePoints the code points to keep, or none to use the whole font again
+     */
+    public static void setAssetFontSubset(String assetLocation, int... codePoints) {
+        setFontSubset(TypefaceRegistry.keyForAsset(assetLocation), codePoints);
+    }
+
+    /**
+     * Declare which code points a font file is used for. See
+     * {@link #setAssetFontSubset(String, int...)}.
+     *
+     * @param fontFile
+     * @param codePoints the code points to keep, or none to use the whole font again
+     */
+    public static void setFileFontSubset(File fontFile, int... codePoints) {
+        setFontSubset(TypefaceRegistry.keyForFile(fontFile), codePoints);
+    }
+
+    /**
+     * Declare which code points a network font is used for. The subset is made once the font is
+     * downloaded, and again whenever a newer copy is. See
+     * {@link #setAssetFontSubset(String, int...)}.
+     *
+     * @param fontLocation
+     * @param codePoints the code points to keep, or none to use the whole font again
+     */
+    public static void setNetworkFontSubset(String fontLocation, int... codePoints) {
+        setFontSubset(TypefaceRegistry.keyForUrl(fontLocation), codePoints);
+    }
+
+    /**
+     * Declare which code points a font in a font pack is used for. See
+     * {@link #setAssetFontSubset(String, int...)}.
+     *
+     * @param packFile
+     * @param fontName
+     * @param codePoints the code points to keep, or none to use the whole font again
+     */
+    public static void setPackFontSubset(File packFile, String fontName, int... codePoints) {
+        setFontSubset(TypefaceRegistry.keyForPack(packFile, fontName), codePoints);
+    }
+
+    private static void setFontSubset(String fontKey, int[] codePoints) {
+        GlyphCoverage subset = null;
+        if (codePoints != null && codePoints.length > 0) {
+            GlyphCoverage.Builder builder = new GlyphCoverage.Builder();
+            for (int codePoint : codePoints)
+                builder.add(codePoint);
+            subset = builder.build();
+        }
+        FontSource.setSubset(fontKey, subset);
+        evictFont(fontKey);
+    }
+
+    /**
+     * Forget everything decoded or rendered from a font whose bytes have changed, e.g. a newer
+     * download or a different subset. The font moves to a new generation, so views still holding
+     * the old Typeface load it again on their next draw, and glyphs drawn from the old copy no
+     * longer match anyone's key. Those are dropped here rather than left to age out.
+     *
+     * @param fontKey
+     */
+    /* package */static void evictFont(String fontKey) {
+        TypefaceRegistry.getInstance().invalidate(fontKey);
+        evictGlyphs(sRenderCache, fontKey);
+        evictGlyphs(sAtlasCache, fontKey);
+        evictGlyphs(sPictureCache, fontKey);
+    }
+
+    private static void evictGlyphs(BoundedLruCache<GlyphKey, ?> cache, String fontKey) {
+        if (cache == null) return;
+        for (GlyphKey key : cache.keys())
+            if (fontKey.equals(key.getFontKey())) cache.remove(key);
+    }
+
+    /**
+     * Render a batch of glyphs ahead of time, e.g. for the next screen while the app is idle.
+     * Fonts are downloaded and decoded as needed, and each glyph is rendered into the render cache
+     * on the font workers, so it's ready the first time a view shows it. Needs
+     * {@link #enableRenderCache(int)}; without it only the fonts are loaded.
+     *
+     * @param context
+     * @param specs the glyphs, set up the way the views that will show them are
+     * @param listener told on the main thread when the batch is over. May be null.
+     * @return a handle for following, waiting for or cancelling the batch
+     */
+    public static GlyphWarmUp warmUp(Context context, Collection<GlyphSpec> specs, GlyphWarmUp.Listener listener) {
+        return GlyphWarmUp.start(context.getApplicationContext(), specs, listener);
+    }
+
+    /**
+     * Change how long a downloaded font is trusted before checking with the server for a newer
+     * one. Checks are conditional requests, so an unchanged font isn't downloaded again.
+     *
+     * @param freshnessWindowMillis (0 = check every time the app starts)
+     */
+    public static void setNetworkFontFreshnessWindow(long freshnessWindowMillis) {
+        FontDownloader.setFreshnessWindow(freshnessWindowMillis);
+    }
+
+    /**
+     * Change how much disk space downloaded fonts may use. When there are more, the least recently
+     * used fonts are deleted (and downloaded again if they're needed later).
+     *
+     * @param maxBytes
+     */
+    public static void setNetworkFontDiskQuota(long maxBytes) {
+        FontStore.setDefaultMaxBytes(maxBytes);
     }
 
     /**
@@ -176,6 +402,152 @@ public class FontView extends View {
         mDebugEnabled = debugEnabled;
     }
 
+    /**
+     * Cache fully rendered glyph images across all FontViews. Views showing the same styled glyph
+     * at the same size will then draw a single bitmap instead of redrawing shapes and text.
+     *
+     * @param maxBytes the most pixel data to hold at once
+     */
+    public static void enableRenderCache(int maxBytes) {
+        GlyphBitmapCache renderCache = sRenderCache;
+        if (renderCache != null) renderCache.resize(maxBytes);
+        else sRenderCache = new GlyphBitmapCache(maxBytes);
+    }
+
+    /**
+     * Stop caching rendered glyph images and release the ones we have
+     */
+    public static void disableRenderCache() {
+        GlyphBitmapCache renderCache = sRenderCache;
+        sRenderCache = null;
+        if (renderCache != null) renderCache.evictAll();
+    }
+
+    /**
+     * @return the shared render cache, for reading hit/miss/eviction counts. Null when disabled.
+     */
+    public static GlyphBitmapCache getRenderCache() {
+        return sRenderCache;
+    }
+
+    /**
+     * Render every glyph of a font into one shared atlas bitmap per style and size, in the
+     * background. Views then draw a piece of that bitmap rather than their own shapes and text,
+     * which cuts texture uploads when many views show the same icon font. Meant for icon fonts
+     * with up to a few hundred glyphs; fonts whose glyphs can't be listed, or with too many to fit,
+     * are drawn normally.
+     *
+     * @param maxBytes the most atlas pixel data to hold at once
+     */
+    public static void enableAtlasMode(int maxBytes) {
+        GlyphAtlasCache atlasCache = sAtlasCache;
+        if (atlasCache != null) atlasCache.resize(maxBytes);
+        else sAtlasCache = new GlyphAtlasCache(maxBytes);
+    }
+
+    /**
+     * Stop drawing from atlases and release the ones we have
+     */
+    public static void disableAtlasMode() {
+        GlyphAtlasCache atlasCache = sAtlasCache;
+        sAtlasCache = null;
+        if (atlasCache != null) atlasCache.evictAll();
+    }
+
+    /**
+     * @return the shared atlas cache, for reading hit/miss/eviction counts. Null when disabled.
+     */
+    public static GlyphAtlasCache getAtlasCache() {
+        return sAtlasCache;
+    }
+
+    /**
+     * Draw glyphs from outlines extracted once per font and character at a reference size, then
+     * scaled to each view, rather than rasterizing text at every view's size. Lists showing the
+     * same glyphs at several sizes then extract each outline only once.
+     *
+     * @param maxOutlines the most outlines to hold at once
+     */
+    public static void enableOutlineCache(int maxOutlines) {
+        GlyphPathCache outlineCache = sOutlineCache;
+        if (outlineCache != null) outlineCache.resize(maxOutlines);
+        else sOutlineCache = new GlyphPathCache(maxOutlines);
+    }
+
+    /**
+     * Go back to drawing glyphs as text and release the outlines we have
+     */
+    public static void disableOutlineCache() {
+        GlyphPathCache outlineCache = sOutlineCache;
+        sOutlineCache = null;
+        if (outlineCache != null) outlineCache.evictAll();
+    }
+
+    /**
+     * @return the shared outline cache, for reading hit/miss/eviction counts. Null when disabled.
+     */
+    public static GlyphPathCache getOutlineCache() {
+        return sOutlineCache;
+    }
+
+    /**
+     * Record each unique styled glyph's drawing once into a shared Picture and replay it in every
+     * view showing it, rather than each view setting up paints and drawing shapes and text. Unlike
+     * {@link #enableRenderCache(int)} this holds no pixels and stays sharp. Pictures can't be
+     * replayed on hardware accelerated canvases before Marshmallow, so views there draw normally.
+     *
+     * @param maxPictures the most recordings to hold at once
+     */
+    public static void enablePictureCache(int maxPictures) {
+        GlyphPictureCache pictureCache = sPictureCache;
+        if (pictureCache != null) pictureCache.resize(maxPictures);
+        else sPictureCache = new GlyphPictureCache(maxPictures);
+    }
+
+    /**
+     * Stop replaying recorded glyphs and release the recordings we have
+     */
+    public static void disablePictureCache() {
+        GlyphPictureCache pictureCache = sPictureCache;
+        sPictureCache = null;
+        if (pictureCache != null) pictureCache.evictAll();
+    }
+
+    /**
+     * @return the shared picture cache, for reading hit/miss/eviction counts. Null when disabled.
+     */
+    public static GlyphPictureCache getPictureCache() {
+        return sPictureCache;
+    }
+
+    /**
+     * Render cached glyphs at one of a small set of sizes, rounded up from each view's size, and
+     * scale them down with filtering as they're drawn. Views of nearly the same size then share
+     * one cached image, so the render cache hits far more often and fewer distinct sizes are
+     * rasterized, at the cost of slightly softer glyphs. Only affects the render cache; see
+     * {@link #enableRenderCache(int)}.
+     *
+     * @param maxError how much larger than a view its rendering may be, e.g. 0.1 for 10%. Larger
+     *            values share more, but scale further.
+     */
+    public static void enableSizeBuckets(float maxError) {
+        sSizeBuckets = new SizeBuckets(maxError);
+    }
+
+    /**
+     * Go back to rendering cached glyphs at each view's exact size
+     */
+    public static void disableSizeBuckets() {
+        sSizeBuckets = null;
+    }
+
+    /**
+     * @return the size buckets cached glyphs are rendered at, or null when they're off
+     */
+    /* package */static SizeBuckets getSizeBuckets() {
+        return sSizeBuckets;
+    }
+
     // Suppress the Async task warning on onDraw. It's fine.
     @SuppressLint("DrawAllocation")
     @Override
@@ -184,23 +556,41 @@ public class FontView extends View {
 
         // Are we drawing in a layout preview?
         if (isInEditMode()) {
-            Paint editPaint = new Paint();
-            editPaint.setAntiAlias(true);
             mExternalCanvas.drawColor(Color.DKGRAY);
         }
         // If we haven't downloaded the font yet and there is a network request...
-        else if (!FontNetworkTask.DOWNLOADED && mFontLocationType == LocationType.NETWORK)
-            new FontNetworkTask(mApplicationContext, mFontReceiver, mFontLocation).execute();
-            // Otherwise, we must already have the data so keep processing without delay
-        else {
-            createTypeface();
-
+        else if (mFontSource != null && mFontSource.needsDownload()) {
+            // Only one request goes out per font, however many views want it. We're on screen, so
+            // it goes to the front of the line.
+            FontWaiterRegistry.getInstance().await(mApplicationContext, mFontSource.getLocation(), this);
+        }
+        // Otherwise, we must already have the data so keep processing without delay, unless the
+        // font is still being cut down or unpacked on a font worker
+        else if (createTypeface()) {
             // Now we have all the data we need.
             // Draw everything.
             draw();
         }
     }
 
+    /**
+     * We're no longer on screen (e.g. scrolled away or recycled). Don't spend time on font work
+     * for a view no one can see.
+     */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        stopWaiting();
+        RenderScheduler.getInstance().unschedule(this);
+    }
+
+    /**
+     * Stop waiting for a network font. If no one else wants it, its download is dropped.
+     */
+    private void stopWaiting() {
+        if (mAwaitedUrl != null) FontWaiterRegistry.getInstance().remove(mAwaitedUrl, this);
+    }
+
     /**
      * Clears out old data. Needed when loading new resources. Otherwise, old colors/shapes/etc.
      * will be still set. This is very useful for view recycling
@@ -211,45 +601,93 @@ public class FontView extends View {
         mBackgroundColor = null;
         mBottomHalfColor = null;
         mHasBackgroundGradient = false;
+        mFallbackCharacter = null;
+        invalidateGlyphKey(GlyphRenderer.DIRTY_PAINT | GlyphRenderer.DIRTY_SHADER);
     }
 
     /**
-     * Do not call. Called by caching mechanism to load the cached font and begin drawing. This is
-     * called when a font network task has completed to ensure that the new data is drawn.
+     * Do not call. Called by the RenderScheduler, once per frame at most, to load the cached font
+     * and begin drawing. This happens when a font network task has completed or the view was set
+     * up, to ensure that the new data is drawn.
      */
     public void internalUpdate() {
         createTypeface();
-        requestLayout();
-    }
-
-    /**
-     * Create the TypeFace we need from the correct source
-     */
-    private void createTypeface() {
-        if (mTypeFace == null && mFontLocationType != null) {
-            switch (mFontLocationType) {
-                case NETWORK:
-                    File fontFile = new File(mApplicationContext.getExternalFilesDir(null), hashUrlToFilename(mFontLocation));
-                    // Only process the file if it's not null
-                    if (fontFile != null)
-                        // It's also possible to get a RuntimeException if the font file exists, but
-                        // is bad or empty
-                        try {
-                            mTypeFace = Typeface.createFromFile(fontFile);
-                        } catch (Exception e) {
-                            // Bad font file
-                            if (mDebugEnabled) Log.d(this.getClass().getSimpleName(), "Bad font file");
-                        }
-                    break;
-                case FILE:
-                    mTypeFace = Typeface.createFromFile(mFontFile);
-                    break;
-                case ASSET:
-                    mTypeFace = Typeface.createFromAsset(mApplicationContext.getAssets(), mFontLocation);
-                    break;
+        // Only views that haven't been measured yet need a layout pass. Everyone else just redraws.
+        if (mWidth == 0 || mHeight == 0) requestLayout();
+        else invalidate();
+    }
+
+    /**
+     * Create the TypeFace we need from the correct source. Fonts are shared through the
+     * TypefaceRegistry so each one is only decoded once. A font that first has to be cut down to
+     * a subset or copied out of a pack is decoded on a font worker instead, and we're redrawn
+     * once it's ready.
+     *
+     * @return false while our font is being decoded in the background
+     */
+    private boolean createTypeface() {
+        if (mFontSource == null) return true;
+        TypefaceRegistry registry = TypefaceRegistry.getInstance();
+
+        // The font's bytes changed since we loaded it. Drop our copy and load the new one.
+        int generation = registry.getGeneration(mFontKey);
+        if (generation != mFontGeneration) {
+            mFontGeneration = generation;
+            mTypeFace = null;
+            mCoverage = null;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        }
+
+        if (mTypeFace == null) {
+            if (registry.get(mFontKey) == null && mFontSource.needsPreparation()) {
+                FontLoadTask.load(mFontSource, this);
+                return false;
             }
+            mTypeFace = registry.getOrLoad(mFontKey, mFontSource);
+            mCoverage = registry.getCoverage(mFontKey);
         }
+        return true;
+    }
+
+    /**
+     * Check whether our font has a glyph for a code point. Until the font is loaded, or if its
+     * cmap couldn't be read, every glyph is assumed present.
+     *
+     * @param codePoint
+     * @return false only if the font is known not to have the glyph
+     */
+    public boolean hasGlyph(int codePoint) {
+        GlyphCoverage coverage = mCoverage;
+        return coverage == null || coverage.hasGlyph(codePoint);
+    }
 
+    /**
+     * Pick what to actually draw: our character, the fallback if the font doesn't have our
+     * character, or nothing if it has neither
+     */
+    private String resolveDrawCharacter() {
+        return resolveDrawCharacter(mCharacter, mCodePoint, mFallbackCharacter, mCoverage);
+    }
+
+    /**
+     * The rule behind {@link #resolveDrawCharacter()}, shared with glyphs rendered off screen so
+     * they come out the same as a view would draw them
+     *
+     * @param character already decoded
+     * @param codePoint character's first code point, or -1
+     * @param fallbackCharacter may be null
+     * @param coverage may be null if unknown
+     * @return what to draw
+     */
+    /* package */static String resolveDrawCharacter(String character, int codePoint, String fallbackCharacter, GlyphCoverage coverage) {
+        if (codePoint < 0 || coverage == null) return character;
+        if (coverage.hasGlyph(codePoint)) return character;
+
+        if (mDebugEnabled) Log.d(FontView.class.getSimpleName(), "Font has no glyph for " + character);
+        if (fallbackCharacter != null && fallbackCharacter.length() > 0 && coverage.hasGlyph(fallbackCharacter.codePointAt(0)))
+            return fallbackCharacter;
+        // Draw the shapes without a glyph rather than a missing glyph box
+        return "";
     }
 
     @Override
@@ -258,83 +696,33 @@ public class FontView extends View {
         // view hierarchy
         mWidth = w;
         mHeight = h;
-
-        // Grab mid points
-        mMidX = mWidth / 2;
-        mMidY = mHeight / 2;
-
-        // Try to maximize the glyph size within the region, taking into account user modification
-        textSize = (int) (mHeight * mFontSizeMultiplier);
+        // Text size, gradient and glyph position all depend on our size
+        invalidateGlyphKey(GlyphRenderer.DIRTY_ALL);
     }
 
     /**
-     * Setup our paint and calculate glyph measurement for correct placement
+     * Debugging aid: redraw this view several times and count the objects allocated. Once the
+     * view has drawn with its current settings this should be 0. The platform's allocation
+     * counting slows every allocation in the process, so it's only on for the duration of this
+     * check. Call on the main thread.
+     *
+     * @param canvas
+     * @param draws how many steady-state draws to count
+     * @return the objects those draws allocated
      */
-    private void setupImage() {
-
-        // Setup our glyph color
-        mForegroundPaint.setTextSize(textSize);
-        if (mForegroundColor != null) mForegroundPaint.setColor(mForegroundColor);
-        else mForegroundPaint.setColor(Color.BLACK);
-        mForegroundPaint.setAntiAlias(true);
-        mForegroundPaint.setTypeface(mTypeFace);
-        mForegroundPaint.getFontMetrics(metrics);
-
-        // Setup our glyph background
-        if (mBackgroundColor != null) {
-            mBackgroundPaint.setColor(mBackgroundColor);
-            mBackgroundPaint.setAntiAlias(true);
-        }
-
-        // Sometimes there is a surrounding color which gives the appearance of clipping/shaping
-        // This will be the background color for that region.
-        if (mOuterColor != null) {
-            mOuterPaint.setColor(mOuterColor);
-            mOuterPaint.setAntiAlias(true);
-        }
+    public int countSteadyStateAllocations(Canvas canvas, int draws) {
+        // Settle anything a setter left dirty, which is allowed to allocate
+        onDraw(canvas);
 
-        // Sometimes there is a bottom half paint color
-        if (mBottomHalfColor != null) {
-            mBottomHalfPaint.setColor(mBottomHalfColor);
-            mBottomHalfPaint.setAntiAlias(true);
-        }
-
-        // Sometimes there is a gradient background
-        if (mHasBackgroundGradient && mBackgroundColor != null && mBottomHalfColor != null) {
-            LinearGradient linearGradient = new LinearGradient(mMidX, TOP, mMidX, mHeight, mBackgroundColor, mBottomHalfColor,
-                    Shader.TileMode.REPEAT);
-            mBackgroundGradientPaint.setDither(false);
-            mBackgroundGradientPaint.setShader(linearGradient);
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < draws; i++)
+                onDraw(canvas);
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
         }
-
-        // Sometimes, glyphs have extra padding. We want to take into account
-        // the maximum padding available
-        // Just in case no character was given...
-        if (mCharacter == null) mCharacter = "";
-
-        int width = (int) mForegroundPaint.measureText(mCharacter);
-
-        // The width differential will be the starting x for drawing the glyph
-        // This will be the center of the view offset by half of the glyph width
-        mWidthDifferential = mMidX - (width / 2);
-
-        // Save some intermediate data for reuse
-        double absGlyphTop = Math.abs(metrics.top);
-        double absGlyphBottom = Math.abs(metrics.bottom);
-        double glyphHeight = absGlyphTop + absGlyphBottom;
-
-        // Calculate the total glyph height (character above baseline + character below baseline)
-        // and get it's midpoint
-        // Use this midpoint to offset the center of the view we're drawing in
-        mHeightDifferential = (int) (mMidY + ((glyphHeight / 2)));
-
-        // By default, center the part of the glyph that is above the baseline
-        // Move the glyph down such that the glyph part that is above the baseline is centered
-        mHeightDifferential *= (1.0 - (absGlyphBottom / absGlyphTop));
-
-        // Allow for a user specified x or y offset to fine tune how they want the glyphs displayed
-        mWidthDifferential += mXOffset;
-        mHeightDifferential += mYOffset;
     }
 
     /**
@@ -346,76 +734,26 @@ public class FontView extends View {
             return;
         }
 
+        boolean measure = FontViewMetrics.sEnabled;
+        long metricsStartTime = measure ? FontViewMetrics.begin(FontViewMetrics.DRAW_TIME) : 0;
         long startTime = System.currentTimeMillis();
 
-        // Calculate glyph metrics we need
-        setupImage();
-
-        // This takes a while to read through, but is optimized for running rather than reading
-
-        // Draw image type specific parts
-
-        // For squares...
-        if (mType == ImageType.SQUARE) {
-            // Is the background a solid color?
-            if (mBottomHalfColor == null) {
-                // Is there a background color?
-                if (mBackgroundColor != null) mExternalCanvas.drawColor(mBackgroundColor);
-
-            }
-            // If the background is not a solid color...
-            else {
-                // Is it a gradient?
-                if (mHasBackgroundGradient) {
-                    if (squareRect == null) squareRect = new Rect(LEFT, TOP, mWidth, mHeight);
-                    mExternalCanvas.drawRect(squareRect, mBackgroundGradientPaint);
-                }
-                // Is it split (non-gradient)?
-                else {
-                    if (squareRectA == null) squareRectA = new Rect(LEFT, TOP, mWidth, mMidY);
-                    if (squareRectB == null) squareRectB = new Rect(LEFT, mMidY, mWidth, mHeight);
-                    mExternalCanvas.drawRect(squareRectA, mBackgroundPaint);
-                    mExternalCanvas.drawRect(squareRectB, mBottomHalfPaint);
-                }
-            }
-        }
-
-        // Do the same for circles...
-        if (mType == ImageType.CIRCLE) {
-            // Is there a color outside the circle?
-            if (mOuterColor != null) mExternalCanvas.drawColor(mOuterColor);
-            // Is the background a solid color?
-            if (mBottomHalfColor == null) {
-                // Is there a background color?
-                if (mBackgroundColor != null) mExternalCanvas.drawCircle(mMidX, mMidY, mMidX, mBackgroundPaint);
-                // If the background is not a solid color...
-            } else {
-                // Is it a gradient?
-                if (mHasBackgroundGradient) {
-                    mExternalCanvas.drawCircle(mMidX, mMidY, mMidX, mBackgroundGradientPaint);
-                }
-                // Is it split(non-gradient)?
-                else {
-                    // Draw the circle's top half
-                    // Use a divisibility offset because if the radius is odd, or rounded odd, there
-                    // will be a non-drawn line between the two circle halves.
-                    final int divisibilityOffset = 2;
-                    if (circleRectA == null) circleRectA = new RectF(LEFT, TOP, mWidth, mHeight + divisibilityOffset);
-                    mExternalCanvas.drawArc(circleRectA, HALF_CIRCLE_TOP_START, HALF_CIRCLE_SWEEP_DISTANCE, true, mBackgroundPaint);
-
-                    // Draw the circle's bottom half
-                    if (circleRectB == null) {
-                        circleRectB = new RectF(LEFT, TOP, mWidth, mHeight);
-                    }
-                    mExternalCanvas.drawArc(circleRectB, HALF_CIRCLE_BOTTOM_START, HALF_CIRCLE_SWEEP_DISTANCE, true, mBottomHalfPaint);
-                }
-            }
+        // Skip or substitute glyphs the font doesn't have before doing any drawing
+        mDrawCharacter = resolveDrawCharacter();
+        // Just in case no character was given...
+        if (mDrawCharacter == null) mDrawCharacter = "";
+
+        // Reuse previously rendered images when we can. Skip the shared images if the font isn't
+        // ready, otherwise we'd remember an image drawn in the default font.
+        boolean fontReady = mTypeFace != null && mWidth > 0 && mHeight > 0;
+        if (!fontReady || sAtlasCache == null || !drawFromAtlas()) {
+            if (fontReady && sRenderCache != null) drawCached();
+            else if (fontReady && sPictureCache != null && GlyphPictureCache.canReplay(mExternalCanvas)) drawPicture();
+            else drawDirect();
         }
 
-        // Draw the glyph
-        mExternalCanvas.drawText(mCharacter, mWidthDifferential, mHeightDifferential, mForegroundPaint);
-
         long endTime = System.currentTimeMillis();
+        if (measure) FontViewMetrics.end(FontViewMetrics.DRAW_TIME, metricsStartTime);
 
         // Draw debug indicators if requested
         if (mDebugEnabled) {
@@ -425,20 +763,127 @@ public class FontView extends View {
             else if (drawTime <= 5) mDebugPaint.setColor(Color.YELLOW);
             else {
                 mDebugPaint.setColor(Color.RED);
-            }
 
-            if (mDebugEnabled) Log.d(this.getClass().getName(), "Font character " + mCharacter + " took " + drawTime + "ms.");
+                // Only slow draws are worth a log line
+                Log.d(this.getClass().getName(), "Font character " + mCharacter + " took " + drawTime + "ms.");
+            }
 
             mDebugPaint.setAntiAlias(true);
 
-            Path path = new Path();
-            path.setFillType(Path.FillType.EVEN_ODD);
-            path.lineTo(mDebugIndicatorWidth * mDisplayMetrics.density, 0);
-            path.lineTo(0, mDebugIndicatorWidth * mDisplayMetrics.density);
-            path.close();
+            // The indicator never changes shape, so build it once
+            if (mDebugPath == null) {
+                mDebugPath = new Path();
+                mDebugPath.setFillType(Path.FillType.EVEN_ODD);
+                mDebugPath.lineTo(mDebugIndicatorWidth * mDisplayMetrics.density, 0);
+                mDebugPath.lineTo(0, mDebugIndicatorWidth * mDisplayMetrics.density);
+                mDebugPath.close();
+            }
+
+            mExternalCanvas.drawPath(mDebugPath, mDebugPaint);
+        }
+    }
+
+    /**
+     * Draw the shapes and glyph straight onto the canvas, only recomputing paints, shaders and
+     * layout that a setter or a size change has made stale. With nothing dirty this allocates
+     * nothing.
+     */
+    private void drawDirect() {
+        GlyphKey key = getGlyphKey();
+        mRenderer.prepare(key, mTypeFace, mDirty);
+        mDirty = 0;
+        mRenderer.draw(mExternalCanvas);
+    }
 
-            mExternalCanvas.drawPath(path, mDebugPaint);
+    /**
+     * Draw our cell of the shared atlas for our style. If the atlas isn't built yet, ask for it and
+     * let the caller draw some other way in the meantime.
+     *
+     * @return true if we drew
+     */
+    private boolean drawFromAtlas() {
+        // Atlases are built from the font's coverage, so without it we can't have one
+        GlyphCoverage coverage = mCoverage;
+        if (coverage == null) return false;
+
+        if (mAtlasStyle == null) mAtlasStyle = getGlyphKey().withCharacter(null);
+        GlyphAtlasCache atlasCache = sAtlasCache;
+        GlyphAtlas atlas = atlasCache.get(mAtlasStyle);
+        if (FontViewMetrics.sEnabled) FontViewMetrics.recordLookup(FontViewMetrics.CACHE_ATLAS, atlas != null);
+        if (atlas == null) {
+            if (!atlasCache.isBuilding(mAtlasStyle)) atlasCache.requestBuild(mAtlasStyle, mTypeFace, coverage);
+            return false;
         }
+
+        // Multi character strings aren't in the atlas
+        if (!atlas.getCellBounds(mDrawCharacter, mAtlasSource)) return false;
+        mAtlasDestination.set(LEFT, TOP, mWidth, mHeight);
+        mExternalCanvas.drawBitmap(atlas.getBitmap(), mAtlasSource, mAtlasDestination, null);
+        return true;
+    }
+
+    /**
+     * Draw from the shared render cache, rendering and caching the image on a miss. A hit costs a
+     * single bitmap draw.
+     */
+    private void drawCached() {
+        GlyphKey key = getGlyphKey();
+        GlyphKey renderKey = getBucketKey(key);
+        Bitmap bitmap = sRenderCache.get(renderKey);
+        if (FontViewMetrics.sEnabled) FontViewMetrics.recordLookup(FontViewMetrics.CACHE_RENDER, bitmap != null);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(renderKey.getWidth(), renderKey.getHeight(), Bitmap.Config.ARGB_8888);
+            mRenderer.render(new Canvas(bitmap), renderKey, mTypeFace);
+            // The renderer is now fully set up for this key, unless it drew at a bucket's size
+            mDirty = renderKey == key ? 0 : GlyphRenderer.DIRTY_ALL;
+            sRenderCache.put(renderKey, bitmap);
+        }
+
+        if (renderKey == key) {
+            mExternalCanvas.drawBitmap(bitmap, LEFT, TOP, null);
+        } else {
+            mBucketDestination.set(LEFT, TOP, mWidth, mHeight);
+            mExternalCanvas.drawBitmap(bitmap, null, mBucketDestination, mBucketPaint);
+        }
+    }
+
+    /**
+     * Replay the shared recording of our glyph, recording it on a miss. A hit skips all paint,
+     * shader and layout work.
+     */
+    private void drawPicture() {
+        GlyphKey key = getGlyphKey();
+        GlyphPictureCache pictureCache = sPictureCache;
+        Picture picture = pictureCache.get(key);
+        if (FontViewMetrics.sEnabled) FontViewMetrics.recordLookup(FontViewMetrics.CACHE_PICTURE, picture != null);
+        if (picture == null) {
+            picture = new Picture();
+            mRenderer.render(picture.beginRecording(mWidth, mHeight), key, mTypeFace);
+            picture.endRecording();
+            // The renderer is now fully set up for this key
+            mDirty = 0;
+            pictureCache.put(key, picture);
+        }
+        mExternalCanvas.drawPicture(picture);
+    }
+
+    /**
+     * @param key our key at our own size
+     * @return the key to render and cache with: key itself, or key at our bucket's size when size
+     *         buckets are enabled
+     */
+    private GlyphKey getBucketKey(GlyphKey key) {
+        SizeBuckets buckets = sSizeBuckets;
+        if (buckets == null) return key;
+
+        GlyphKey bucketKey = mBucketKey;
+        // Rebuilt when our key or the buckets change. The character can change without
+        // invalidating our key, so compare it too.
+        if (bucketKey == null || mBucketKeyBuckets != buckets || !bucketKey.getCharacter().equals(key.getCharacter())) {
+            bucketKey = mBucketKey = key.bucketed(buckets);
+            mBucketKeyBuckets = buckets;
+        }
+        return bucketKey;
     }
 
     // Convenience classes for tracking mutable attributes
@@ -447,7 +892,7 @@ public class FontView extends View {
     }
 
     public enum LocationType {
-        NETWORK, ASSET, FILE
+        NETWORK, ASSET, FILE, PACK
     }
 
     /**
@@ -458,23 +903,7 @@ public class FontView extends View {
      * @return
      */
     public static String hashUrlToFilename(String stringToHash) {
-        final String HASH_TYPE = "MD5";
-        try {
-            // Create byte hash
-            MessageDigest messageDigest = MessageDigest.getInstance(HASH_TYPE);
-            messageDigest.update(stringToHash.getBytes());
-            byte digestBytes[] = messageDigest.digest();
-
-            // Rewrite the byte has as a hex hash
-            StringBuilder hexString = new StringBuilder();
-            for (byte i : digestBytes)
-                hexString.append(Integer.toHexString(0xFF & i));
-
-            return hexString.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
+        return FontDownloader.hashUrlToFilename(stringToHash);
     }
 
     /**
@@ -484,7 +913,10 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView setXOffset(int xOffset) {
-        mXOffset = xOffset;
+        if (mXOffset != xOffset) {
+            mXOffset = xOffset;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        }
         return this;
     }
 
@@ -495,7 +927,10 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView setYOffset(int yOffset) {
-        mYOffset = yOffset;
+        if (mYOffset != yOffset) {
+            mYOffset = yOffset;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_LAYOUT);
+        }
         return this;
     }
 
@@ -506,7 +941,10 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView setFontSizeMultiplier(double fontSizeMultiplier) {
-        this.mFontSizeMultiplier = fontSizeMultiplier;
+        if (mFontSizeMultiplier != fontSizeMultiplier) {
+            this.mFontSizeMultiplier = fontSizeMultiplier;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_PAINT);
+        }
         return this;
     }
 
@@ -517,7 +955,10 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView addBackgroundColor(int backgroundColor) {
-        this.mBackgroundColor = backgroundColor;
+        if (mBackgroundColor == null || mBackgroundColor != backgroundColor) {
+            this.mBackgroundColor = backgroundColor;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_PAINT | GlyphRenderer.DIRTY_SHADER);
+        }
         return this;
     }
 
@@ -528,7 +969,10 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView addForegroundColor(int foregroundColor) {
-        this.mForegroundColor = foregroundColor;
+        if (mForegroundColor == null || mForegroundColor != foregroundColor) {
+            this.mForegroundColor = foregroundColor;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_PAINT);
+        }
         return this;
     }
 
@@ -541,7 +985,11 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView addOuterColor(int outerColor) {
-        this.mOuterColor = outerColor;
+        if (mOuterColor == null || mOuterColor != outerColor) {
+            this.mOuterColor = outerColor;
+            // Drawn straight from the key, so there's nothing for the renderer to recompute
+            invalidateGlyphKey(0);
+        }
         return this;
     }
 
@@ -554,7 +1002,22 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView addBottomHalfColor(int bottomHalfColor) {
-        this.mBottomHalfColor = bottomHalfColor;
+        if (mBottomHalfColor == null || mBottomHalfColor != bottomHalfColor) {
+            this.mBottomHalfColor = bottomHalfColor;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_PAINT | GlyphRenderer.DIRTY_SHADER);
+        }
+        return this;
+    }
+
+    /**
+     * Draw a different character when the font has no glyph for the one given to setupFont. If
+     * the font has neither, only the shapes are drawn.
+     *
+     * @param fallbackCharacter
+     * @return fontView
+     */
+    public FontView setFallbackCharacter(String fallbackCharacter) {
+        this.mFallbackCharacter = fallbackCharacter;
         return this;
     }
 
@@ -566,7 +1029,10 @@ public class FontView extends View {
      * @return fontView
      */
     public FontView setBackgroundGradient(boolean mHasBackgroundGradient) {
-        this.mHasBackgroundGradient = mHasBackgroundGradient;
+        if (this.mHasBackgroundGradient != mHasBackgroundGradient) {
+            this.mHasBackgroundGradient = mHasBackgroundGradient;
+            invalidateGlyphKey(GlyphRenderer.DIRTY_SHADER);
+        }
         return this;
     }
 
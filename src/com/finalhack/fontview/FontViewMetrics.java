@@ -0,0 +1,200 @@
+package com.finalhack.fontview;
+
+import java.lang.reflect.Method;
+
+/**
+ * Timings and counts from inside the library: downloads, font decoding, glyph layout, drawing and
+ * cache lookups. Each is kept in a {@link Histogram} and passed to an optional {@link Listener}.
+ * The same phases are marked as android.os.Trace sections, so they show up in systrace.
+ * <p>
+ * Everything is off by default. While disabled, each measuring point costs a single static field
+ * read; nothing is timed, allocated or traced.
+ */
+public final class FontViewMetrics {
+
+    // Metrics. Durations are in nanoseconds.
+    public static final int DOWNLOAD_TIME = 0;
+    public static final int DOWNLOAD_BYTES = 1;
+    public static final int DECODE_TIME = 2;
+    public static final int LAYOUT_TIME = 3;
+    public static final int DRAW_TIME = 4;
+    private static final int METRIC_COUNT = 5;
+
+    // Caches, for cache lookups
+    public static final int CACHE_TYPEFACE = 0;
+    public static final int CACHE_RENDER = 1;
+    public static final int CACHE_ATLAS = 2;
+    public static final int CACHE_OUTLINE = 3;
+    public static final int CACHE_PICTURE = 4;
+    private static final int CACHE_COUNT = 5;
+
+    private static final String[] TRACE_SECTIONS = { "FontView download", null, "FontView decode", "FontView layout",
+            "FontView draw" };
+
+    /**
+     * Told about every measurement while metrics are enabled. Called on whichever thread did the
+     * work (drawing on the main thread, downloads and decodes on font workers), so keep it quick.
+     */
+    public interface Listener {
+        /**
+         * @param metric one of the metric constants
+         * @param value nanoseconds for durations, bytes for sizes
+         */
+        void onMetric(int metric, long value);
+
+        /**
+         * @param cache one of the CACHE_* constants
+         * @param hit
+         */
+        void onCacheLookup(int cache, boolean hit);
+    }
+
+    // Read on every measuring point, so it's deliberately not volatile. It's meant to be set once
+    // at startup; another thread seeing the change a little late only misses a few samples.
+    /* package */static boolean sEnabled;
+    private static volatile Listener sListener;
+
+    private static final Histogram[] HISTOGRAMS = new Histogram[METRIC_COUNT];
+    private static final Histogram[] CACHE_LOOKUPS = new Histogram[CACHE_COUNT];
+    static {
+        for (int i = 0; i < METRIC_COUNT; i++)
+            HISTOGRAMS[i] = new Histogram();
+        // A lookup is recorded as 1 for a hit and 0 for a miss, so count is lookups and sum is hits
+        for (int i = 0; i < CACHE_COUNT; i++)
+            CACHE_LOOKUPS[i] = new Histogram();
+    }
+
+    // android.os.Trace is newer than our minimum API level, so it's found at runtime
+    private static Method sTraceBegin;
+    private static Method sTraceEnd;
+    // Pre-built arguments, so tracing doesn't allocate
+    private static final Object[][] TRACE_ARGUMENTS = new Object[METRIC_COUNT][];
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    static {
+        try {
+            Class<?> trace = Class.forName("android.os.Trace");
+            sTraceBegin = trace.getMethod("beginSection", String.class);
+            sTraceEnd = trace.getMethod("endSection");
+            for (int i = 0; i < METRIC_COUNT; i++)
+                TRACE_ARGUMENTS[i] = new Object[] { TRACE_SECTIONS[i] };
+        } catch (Exception e) {
+            // Not available. Metrics still work, they just aren't traced.
+            sTraceBegin = null;
+            sTraceEnd = null;
+        }
+    }
+
+    private FontViewMetrics() {
+    }
+
+    /**
+     * Turn measuring on or off
+     *
+     * @param enabled
+     */
+    public static void enable(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param listener told about each measurement. May be null.
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * @param metric one of the metric constants
+     * @return everything recorded for that metric since the last reset
+     */
+    public static Histogram getHistogram(int metric) {
+        return HISTOGRAMS[metric];
+    }
+
+    /**
+     * @param cache one of the CACHE_* constants
+     * @return the number of lookups in that cache
+     */
+    public static long getLookupCount(int cache) {
+        return CACHE_LOOKUPS[cache].getCount();
+    }
+
+    /**
+     * @param cache one of the CACHE_* constants
+     * @return the number of lookups in that cache that hit
+     */
+    public static long getHitCount(int cache) {
+        return CACHE_LOOKUPS[cache].getSum();
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public static void reset() {
+        for (Histogram histogram : HISTOGRAMS)
+            histogram.reset();
+        for (Histogram lookups : CACHE_LOOKUPS)
+            lookups.reset();
+    }
+
+    /**
+     * Start timing a phase. Callers check {@link #sEnabled} first, so none of this runs while
+     * disabled.
+     *
+     * @param metric the duration metric being timed
+     * @return the start time, to pass to {@link #end(int, long)}
+     */
+    /* package */static long begin(int metric) {
+        Method traceBegin = sTraceBegin;
+        if (traceBegin != null) invoke(traceBegin, TRACE_ARGUMENTS[metric]);
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish timing a phase started with {@link #begin(int)}
+     *
+     * @param metric
+     * @param startTime
+     */
+    /* package */static void end(int metric, long startTime) {
+        long duration = System.nanoTime() - startTime;
+        Method traceEnd = sTraceEnd;
+        if (traceEnd != null) invoke(traceEnd, NO_ARGUMENTS);
+        record(metric, duration);
+    }
+
+    /**
+     * Record a value measured some other way, e.g. a download's size
+     *
+     * @param metric
+     * @param value
+     */
+    /* package */static void record(int metric, long value) {
+        HISTOGRAMS[metric].record(value);
+        Listener listener = sListener;
+        if (listener != null) listener.onMetric(metric, value);
+    }
+
+    /**
+     * @param cache
+     * @param hit
+     */
+    /* package */static void recordLookup(int cache, boolean hit) {
+        CACHE_LOOKUPS[cache].record(hit ? 1 : 0);
+        Listener listener = sListener;
+        if (listener != null) listener.onCacheLookup(cache, hit);
+    }
+
+    private static void invoke(Method method, Object[] arguments) {
+        try {
+            method.invoke(null, arguments);
+        } catch (Exception e) {
+            // Tracing is best effort
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.finalhack.fontview;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.content.Context;
+
+/**
+ * Keeps track of which FontViews are waiting for which network font. Each font is fetched by a
+ * single task no matter how many views want it, and when it arrives every view still waiting is
+ * refreshed in one batch on the next frame.
+ * <p>
+ * Views are held weakly, so a view that's recycled or thrown away while its font downloads isn't
+ * kept alive by the download. Views that leave the window stop waiting, and a download that no
+ * one is waiting for any more is cancelled if it hasn't started.
+ */
+public final class FontWaiterRegistry {
+
+    private static final FontWaiterRegistry INSTANCE = new FontWaiterRegistry();
+
+    // Everything we know about one font being fetched
+    private static class Entry {
+        FontNetworkTask task;
+        final ArrayList<WeakReference<FontView>> waiters = new ArrayList<WeakReference<FontView>>();
+        // Prefetched fonts are fetched even if no view is waiting
+        boolean prefetch;
+        // Waiters that aren't views, e.g. a warm up, run on the main thread when the font arrives
+        final ArrayList<Runnable> listeners = new ArrayList<Runnable>();
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    // Reused when handing views to the scheduler, outside of the lock
+    private final ArrayList<FontView> mArrived = new ArrayList<FontView>();
+    private final ArrayList<Runnable> mArrivedListeners = new ArrayList<Runnable>();
+
+    private FontWaiterRegistry() {
+    }
+
+    /**
+     * @return the registry shared by all FontViews
+     */
+    public static FontWaiterRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Wait for a network font, fetching it if no one is yet. A view that's already waiting for it
+     * costs nothing, so this can be called on every draw.
+     *
+     * @param applicationContext
+     * @param url
+     * @param view refreshed when the font arrives
+     */
+    public synchronized void await(Context applicationContext, String url, FontView view) {
+        Entry entry = fetch(applicationContext, url, FontTask.PRIORITY_VISIBLE, true);
+        if (url.equals(view.mAwaitedUrl)) return;
+
+        // A recycled view may still be waiting for another font
+        if (view.mAwaitedUrl != null) remove(view.mAwaitedUrl, view);
+
+        // Clear out views that were collected while waiting, so a long download doesn't pile up dead
+        // references
+        ArrayList<WeakReference<FontView>> waiters = entry.waiters;
+        for (int i = waiters.size() - 1; i >= 0; i--)
+            if (waiters.get(i).get() == null) waiters.remove(i);
+        waiters.add(new WeakReference<FontView>(view));
+        view.mAwaitedUrl = url;
+    }
+
+    /**
+     * Fetch a font ahead of time, without a view waiting for it
+     *
+     * @param applicationContext
+     * @param url
+     */
+    public synchronized void prefetch(Context applicationContext, String url) {
+        fetch(applicationContext, url, FontTask.PRIORITY_PREFETCH, false).prefetch = true;
+    }
+
+    /**
+     * Fetch a font ahead of time for someone other than a view, and tell them when it has been
+     * fetched (or given up on). Since someone is waiting, the fetch is never dropped from a full
+     * queue.
+     *
+     * @param applicationContext
+     * @param url
+     * @param onArrived run on the main thread once the fetch is over
+     */
+    /* package */synchronized void prefetch(Context applicationContext, String url, Runnable onArrived) {
+        Entry entry = fetch(applicationContext, url, FontTask.PRIORITY_PREFETCH, true);
+        entry.prefetch = true;
+        entry.listeners.add(onArrived);
+    }
+
+    /**
+     * Make sure a task is fetching url, at no less than the given priority
+     *
+     * @param waitedOn true if a view (or another waiter) is about to wait for the font
+     */
+    private Entry fetch(Context applicationContext, String url, int priority, boolean waitedOn) {
+        Entry entry = mEntries.get(url);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(url, entry);
+        }
+
+        FontNetworkTask task = entry.task;
+        // No task yet, or it was dropped from a full queue. Start (again).
+        if (task == null || task.isCancelled()) {
+            entry.task = new FontNetworkTask(applicationContext, url);
+            // Marked before it's queued, so it can't be the one dropped to make room for itself
+            entry.task.setWaitedOn(waitedOn || !entry.waiters.isEmpty() || !entry.listeners.isEmpty());
+            FontExecutor.getInstance().execute(entry.task, priority);
+            return entry;
+        }
+        // Waited on tasks are never dropped from a full queue
+        if (waitedOn) task.setWaitedOn(true);
+        // A view is on screen waiting for a prefetch. Move it to the front of the line.
+        if (priority < task.getPriority()) FontExecutor.getInstance().reprioritize(task, priority);
+        return entry;
+    }
+
+    /**
+     * Stop a view waiting, e.g. because it left the window or switched fonts
+     *
+     * @param url
+     * @param view
+     */
+    public synchronized void remove(String url, FontView view) {
+        if (url.equals(view.mAwaitedUrl)) view.mAwaitedUrl = null;
+        Entry entry = mEntries.get(url);
+        if (entry == null) return;
+
+        ArrayList<WeakReference<FontView>> waiters = entry.waiters;
+        for (int i = waiters.size() - 1; i >= 0; i--) {
+            FontView waiter = waiters.get(i).get();
+            // Drop the view, and anyone who has been garbage collected
+            if (waiter == null || waiter == view) waiters.remove(i);
+        }
+
+        if (!waiters.isEmpty()) return;
+        // No one is left to see this font. Don't spend a worker on it.
+        if (!entry.prefetch) {
+            if (entry.task != null) entry.task.cancel();
+            mEntries.remove(url);
+        }
+        // Only a prefetch now, which may be dropped like any other unless someone else is waiting
+        else if (entry.task != null) entry.task.setWaitedOn(!entry.listeners.isEmpty());
+    }
+
+    /**
+     * A font has been fetched (or given up on). Refresh everyone still waiting for it, together,
+     * on the next frame. Called on the main thread.
+     *
+     * @param url
+     */
+    /* package */void onFontArrived(String url) {
+        synchronized (this) {
+            Entry entry = mEntries.remove(url);
+            if (entry == null) return;
+            for (WeakReference<FontView> reference : entry.waiters) {
+                FontView view = reference.get();
+                // Collected, or recycled onto another font since
+                if (view == null || !url.equals(view.mAwaitedUrl)) continue;
+                view.mAwaitedUrl = null;
+                mArrived.add(view);
+            }
+            mArrivedListeners.addAll(entry.listeners);
+        }
+
+        RenderScheduler scheduler = RenderScheduler.getInstance();
+        for (int i = 0; i < mArrived.size(); i++)
+            scheduler.schedule(mArrived.get(i));
+        mArrived.clear();
+
+        for (int i = 0; i < mArrivedListeners.size(); i++)
+            mArrivedListeners.get(i).run();
+        mArrivedListeners.clear();
+    }
+
+    /**
+     * @param url
+     * @return how many views are waiting for url, including ones that may have been collected
+     */
+    public synchronized int getWaiterCount(String url) {
+        Entry entry = mEntries.get(url);
+        return entry == null ? 0 : entry.waiters.size();
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.finalhack.fontview;
+
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Every glyph of a font, rendered in one style and size into a single bitmap. Views sharing an
+ * atlas draw a sub-rectangle of the same bitmap, which is uploaded to the GPU once rather than once
+ * per glyph.
+ * <p>
+ * Each cell holds the complete image a FontView would draw (shapes, colors and character), so
+ * drawing from the atlas looks exactly like drawing directly. The first cell is the shapes alone,
+ * for when the font has neither the character nor a fallback. Atlases are immutable once built.
+ */
+public final class GlyphAtlas {
+
+    // The largest texture every device we support can take
+    public static final int MAX_TEXTURE_SIZE = 2048;
+    // Atlases are meant for icon fonts. Fonts with more glyphs than this are drawn normally.
+    public static final int MAX_CELLS = 1024;
+
+    private final GlyphKey mStyle;
+    private final Bitmap mBitmap;
+    // Character -> cell index
+    private final HashMap<String, Integer> mCells;
+    private final int mColumns;
+
+    private GlyphAtlas(GlyphKey style, Bitmap bitmap, HashMap<String, Integer> cells, int columns) {
+        mStyle = style;
+        mBitmap = bitmap;
+        mCells = cells;
+        mColumns = columns;
+    }
+
+    /**
+     * Check whether an atlas can be built without going over the texture size limit. Cheap enough
+     * to call before scheduling a build.
+     *
+     * @param cellWidth
+     * @param cellHeight
+     * @param glyphCount the number of glyphs the font covers
+     * @return true if the atlas would fit
+     */
+    public static boolean fits(int cellWidth, int cellHeight, int glyphCount) {
+        if (cellWidth <= 0 || cellHeight <= 0 || cellWidth > MAX_TEXTURE_SIZE) return false;
+        // One extra cell for the shapes alone
+        int cellCount = glyphCount + 1;
+        if (cellCount > MAX_CELLS) return false;
+        int columns = Math.min(cellCount, MAX_TEXTURE_SIZE / cellWidth);
+        int rows = (cellCount + columns - 1) / columns;
+        return (long) rows * cellHeight <= MAX_TEXTURE_SIZE;
+    }
+
+    /**
+     * Render every glyph the font covers. Slow; call on a worker thread.
+     *
+     * @param style the style and size to render. Its character is ignored.
+     * @param typeface
+     * @param coverage which code points the font has glyphs for
+     * @param renderer
+     * @return the atlas, or null if it wouldn't fit
+     */
+    public static GlyphAtlas build(GlyphKey style, Typeface typeface, GlyphCoverage coverage, GlyphRenderer renderer) {
+        int cellWidth = style.getWidth();
+        int cellHeight = style.getHeight();
+        if (!fits(cellWidth, cellHeight, coverage.size())) return null;
+
+        int cellCount = coverage.size() + 1;
+        int columns = Math.min(cellCount, MAX_TEXTURE_SIZE / cellWidth);
+        int rows = (cellCount + columns - 1) / columns;
+
+        Bitmap bitmap = Bitmap.createBitmap(columns * cellWidth, rows * cellHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        HashMap<String, Integer> cells = new HashMap<String, Integer>(cellCount * 2);
+
+        String character = "";
+        int codePoint = -1;
+        for (int cell = 0; cell < cellCount; cell++) {
+            canvas.save();
+            canvas.translate((cell % columns) * cellWidth, (cell / columns) * cellHeight);
+            // Backgrounds fill the whole clip, so keep each glyph to its own cell
+            canvas.clipRect(0, 0, cellWidth, cellHeight);
+            renderer.render(canvas, style.withCharacter(character), typeface);
+            canvas.restore();
+            cells.put(character, cell);
+
+            codePoint = coverage.nextCodePoint(codePoint + 1);
+            if (codePoint < 0) break;
+            character = new String(Character.toChars(codePoint));
+        }
+
+        return new GlyphAtlas(style.withCharacter(null), bitmap, cells, columns);
+    }
+
+    /**
+     * Find where a character was drawn
+     *
+     * @param character
+     * @param bounds set to the character's cell
+     * @return false if the character isn't in the atlas
+     */
+    public boolean getCellBounds(String character, Rect bounds) {
+        Integer cell = mCells.get(character);
+        if (cell == null) return false;
+
+        int width = mStyle.getWidth();
+        int height = mStyle.getHeight();
+        int left = (cell % mColumns) * width;
+        int top = (cell / mColumns) * height;
+        bounds.set(left, top, left + width, top + height);
+        return true;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /**
+     * @return the style this atlas was drawn in, without a character
+     */
+    public GlyphKey getStyle() {
+        return mStyle;
+    }
+
+    /**
+     * @return how many glyphs (including the shapes alone) the atlas holds
+     */
+    public int getCellCount() {
+        return mCells.size();
+    }
+
+}
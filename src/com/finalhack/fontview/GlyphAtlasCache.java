@@ -0,0 +1,105 @@
+package com.finalhack.fontview;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.graphics.Typeface;
+
+/**
+ * Glyph atlases, one per font, style and size, bounded by how many bytes of pixel data they hold.
+ * Atlases are built in the background on the {@link FontExecutor}; views draw normally until
+ * theirs is ready. Shared by all FontViews once enabled with {@link FontView#enableAtlasMode(int)}.
+ */
+public class GlyphAtlasCache extends BoundedLruCache<GlyphKey, GlyphAtlas> {
+
+    // Styles with an atlas being built, so each is only built once
+    private final ConcurrentHashMap<GlyphKey, Boolean> mBuilding = new ConcurrentHashMap<GlyphKey, Boolean>();
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxBytes the most pixel data to hold at once
+     */
+    public GlyphAtlasCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Start building an atlas in the background, unless one is already being built or it wouldn't
+     * fit
+     *
+     * @param style the style and size to render, without a character
+     * @param typeface
+     * @param coverage which code points the font has glyphs for
+     * @return true if a build was started
+     */
+    public boolean requestBuild(GlyphKey style, Typeface typeface, GlyphCoverage coverage) {
+        if (!GlyphAtlas.fits(style.getWidth(), style.getHeight(), coverage.size())) return false;
+        // An atlas bigger than the whole budget would be thrown away as soon as it was built
+        if (estimateBytes(style, coverage) > maxSize()) return false;
+        if (mBuilding.putIfAbsent(style, Boolean.TRUE) != null) return false;
+
+        FontExecutor.getInstance().execute(new BuildTask(style, typeface, coverage), FontTask.PRIORITY_DEFAULT);
+        return true;
+    }
+
+    /**
+     * @param style
+     * @return true if an atlas for style is being built
+     */
+    public boolean isBuilding(GlyphKey style) {
+        return mBuilding.containsKey(style);
+    }
+
+    /**
+     * Measure atlases by their pixel data. getByteCount() isn't available on older API levels.
+     */
+    @Override
+    protected long sizeOf(GlyphKey key, GlyphAtlas value) {
+        return (long) value.getBitmap().getRowBytes() * value.getBitmap().getHeight();
+    }
+
+    // An upper bound: ARGB_8888 pixels, with the last row of cells counted as full
+    private static long estimateBytes(GlyphKey style, GlyphCoverage coverage) {
+        int cellCount = coverage.size() + 1;
+        int columns = Math.min(cellCount, GlyphAtlas.MAX_TEXTURE_SIZE / style.getWidth());
+        int rows = (cellCount + columns - 1) / columns;
+        return 4L * columns * style.getWidth() * rows * style.getHeight();
+    }
+
+    /**
+     * Renders an atlas on a font worker thread
+     */
+    private class BuildTask extends FontTask {
+        private final GlyphKey mStyle;
+        private final Typeface mTypeface;
+        private final GlyphCoverage mCoverage;
+
+        BuildTask(GlyphKey style, Typeface typeface, GlyphCoverage coverage) {
+            mStyle = style;
+            mTypeface = typeface;
+            mCoverage = coverage;
+        }
+
+        @Override
+        protected void doInBackground() {
+            try {
+                GlyphAtlas atlas = GlyphAtlas.build(mStyle, mTypeface, mCoverage, new GlyphRenderer());
+                if (atlas != null) put(mStyle, atlas);
+            } catch (OutOfMemoryError e) {
+                // Views keep drawing normally
+                if (FontView.mDebugEnabled) e.printStackTrace();
+            } finally {
+                mBuilding.remove(mStyle);
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            // Dropped from a full queue. Let a later draw ask again.
+            boolean cancelled = super.cancel();
+            if (cancelled) mBuilding.remove(mStyle);
+            return cancelled;
+        }
+    }
+
+}
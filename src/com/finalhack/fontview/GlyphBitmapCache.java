@@ -0,0 +1,29 @@
+package com.finalhack.fontview;
+
+import android.graphics.Bitmap;
+
+/**
+ * Fully rendered glyph images (shapes, colors and character), bounded by how many bytes of pixel
+ * data they hold. Shared by all FontViews once enabled with
+ * {@link FontView#enableRenderCache(int)}.
+ */
+public class GlyphBitmapCache extends BoundedLruCache<GlyphKey, Bitmap> {
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxBytes the most pixel data to hold at once
+     */
+    public GlyphBitmapCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Measure bitmaps by their pixel data. getByteCount() isn't available on older API levels.
+     */
+    @Override
+    protected long sizeOf(GlyphKey key, Bitmap value) {
+        return (long) value.getRowBytes() * value.getHeight();
+    }
+
+}
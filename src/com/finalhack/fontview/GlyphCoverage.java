@@ -0,0 +1,124 @@
+package com.finalhack.fontview;
+
+/**
+ * The set of code points a font has glyphs for. Stored as a two level bitset: a page table up to
+ * the highest covered code point, with 256 bit pages allocated only where the font has glyphs.
+ * An icon font in the basic multilingual plane's private use area costs about a kilobyte.
+ * <p>
+ * Lookups are constant time and never allocate. Instances are immutable once built.
+ */
+public final class GlyphCoverage {
+
+    public static final int MAX_CODE_POINT = 0x10FFFF;
+
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_COUNT = (MAX_CODE_POINT >> PAGE_SHIFT) + 1;
+    private static final int WORDS_PER_PAGE = (1 << PAGE_SHIFT) / 64;
+
+    private final long[][] mPages;
+    private final int mCount;
+
+    private GlyphCoverage(long[][] pages, int count) {
+        mPages = pages;
+        mCount = count;
+    }
+
+    /**
+     * @param codePoint
+     * @return true if the font has a glyph for codePoint
+     */
+    public boolean hasGlyph(int codePoint) {
+        int pageIndex = codePoint >> PAGE_SHIFT;
+        if (codePoint < 0 || pageIndex >= mPages.length) return false;
+        long[] page = mPages[pageIndex];
+        if (page == null) return false;
+        return (page[(codePoint >> 6) & (WORDS_PER_PAGE - 1)] & (1L << (codePoint & 63))) != 0;
+    }
+
+    /**
+     * @return how many code points are covered
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @param codePoint where to start looking
+     * @return the next covered code point at or after codePoint, or -1 if there are none
+     */
+    public int nextCodePoint(int codePoint) {
+        if (codePoint < 0) codePoint = 0;
+        int end = (mPages.length << PAGE_SHIFT) - 1;
+        while (codePoint <= end) {
+            long[] page = mPages[codePoint >> PAGE_SHIFT];
+            if (page == null) {
+                // Skip the whole empty page
+                codePoint = ((codePoint >> PAGE_SHIFT) + 1) << PAGE_SHIFT;
+                continue;
+            }
+            if (hasGlyph(codePoint)) return codePoint;
+            codePoint++;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "GlyphCoverage[" + mCount + " code points]";
+    }
+
+    /**
+     * Collects code points into a GlyphCoverage
+     */
+    public static final class Builder {
+        private long[][] mPages = new long[PAGE_COUNT][];
+        private int mCount;
+
+        /**
+         * @param codePoint
+         * @return this builder
+         */
+        public Builder add(int codePoint) {
+            if (codePoint < 0 || codePoint > MAX_CODE_POINT) return this;
+            long[] page = mPages[codePoint >> PAGE_SHIFT];
+            if (page == null) page = mPages[codePoint >> PAGE_SHIFT] = new long[WORDS_PER_PAGE];
+
+            int word = (codePoint >> 6) & (WORDS_PER_PAGE - 1);
+            long bit = 1L << (codePoint & 63);
+            if ((page[word] & bit) == 0) {
+                page[word] |= bit;
+                mCount++;
+            }
+            return this;
+        }
+
+        /**
+         * @param start first code point, inclusive
+         * @param end last code point, inclusive
+         * @return this builder
+         */
+        public Builder addRange(int start, int end) {
+            if (start < 0) start = 0;
+            if (end > MAX_CODE_POINT) end = MAX_CODE_POINT;
+            for (int codePoint = start; codePoint <= end; codePoint++)
+                add(codePoint);
+            return this;
+        }
+
+        public GlyphCoverage build() {
+            // Only keep the page table up to the last page in use
+            int pageCount = mPages.length;
+            while (pageCount > 0 && mPages[pageCount - 1] == null)
+                pageCount--;
+            long[][] pages = new long[pageCount][];
+            System.arraycopy(mPages, 0, pages, 0, pageCount);
+
+            GlyphCoverage coverage = new GlyphCoverage(pages, mCount);
+            // Don't let later adds change a built coverage
+            mPages = new long[PAGE_COUNT][];
+            mCount = 0;
+            return coverage;
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.finalhack.fontview;
+
+/**
+ * Everything that affects how a styled glyph looks once it's drawn. Two FontViews with equal keys
+ * produce identical pixels, so a key can stand in for a rendered image.
+ */
+public final class GlyphKey {
+
+    private final String mFontKey;
+    private final int mFontGeneration;
+    private final String mCharacter;
+    private final FontView.ImageType mType;
+    private final Integer mForegroundColor;
+    private final Integer mBackgroundColor;
+    private final Integer mOuterColor;
+    private final Integer mBottomHalfColor;
+    private final boolean mHasBackgroundGradient;
+    private final int mXOffset;
+    private final int mYOffset;
+    private final double mFontSizeMultiplier;
+    private final int mWidth;
+    private final int mHeight;
+
+    // Keys are looked up far more often than they're built
+    private final int mHashCode;
+
+    /**
+     * Standard constructor. Colors may be null when not used. The font generation comes from
+     * {@link TypefaceRegistry#getGeneration(String)}, so glyphs drawn from an older copy of the
+     * font never match.
+     */
+    public GlyphKey(String fontKey, int fontGeneration, String character, FontView.ImageType type, Integer foregroundColor,
+            Integer backgroundColor, Integer outerColor, Integer bottomHalfColor, boolean hasBackgroundGradient, int xOffset,
+            int yOffset, double fontSizeMultiplier, int width, int height) {
+        mFontKey = fontKey;
+        mFontGeneration = fontGeneration;
+        mCharacter = character;
+        mType = type;
+        mForegroundColor = foregroundColor;
+        mBackgroundColor = backgroundColor;
+        mOuterColor = outerColor;
+        mBottomHalfColor = bottomHalfColor;
+        mHasBackgroundGradient = hasBackgroundGradient;
+        mXOffset = xOffset;
+        mYOffset = yOffset;
+        mFontSizeMultiplier = fontSizeMultiplier;
+        mWidth = width;
+        mHeight = height;
+        mHashCode = computeHashCode();
+    }
+
+    public String getFontKey() {
+        return mFontKey;
+    }
+
+    public int getFontGeneration() {
+        return mFontGeneration;
+    }
+
+    public String getCharacter() {
+        return mCharacter;
+    }
+
+    public FontView.ImageType getType() {
+        return mType;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Integer getForegroundColor() {
+        return mForegroundColor;
+    }
+
+    public Integer getBackgroundColor() {
+        return mBackgroundColor;
+    }
+
+    public Integer getOuterColor() {
+        return mOuterColor;
+    }
+
+    public Integer getBottomHalfColor() {
+        return mBottomHalfColor;
+    }
+
+    public boolean hasBackgroundGradient() {
+        return mHasBackgroundGradient;
+    }
+
+    public int getXOffset() {
+        return mXOffset;
+    }
+
+    public int getYOffset() {
+        return mYOffset;
+    }
+
+    public double getFontSizeMultiplier() {
+        return mFontSizeMultiplier;
+    }
+
+    /**
+     * @param character
+     * @return a key for the same style and size, showing a different character
+     */
+    public GlyphKey withCharacter(String character) {
+        return new GlyphKey(mFontKey, mFontGeneration, character, mType, mForegroundColor, mBackgroundColor, mOuterColor, mBottomHalfColor,
+                mHasBackgroundGradient, mXOffset, mYOffset, mFontSizeMultiplier, mWidth, mHeight);
+    }
+
+    /**
+     * @param height
+     * @return a key for the same glyph and style at another height. The width and offsets scale
+     *         with it, so the result is this glyph's rendering, enlarged or shrunk.
+     */
+    public GlyphKey scaledTo(int height) {
+        if (height == mHeight) return this;
+        double scale = (double) height / mHeight;
+        int width = Math.max(1, (int) Math.round(mWidth * scale));
+        return new GlyphKey(mFontKey, mFontGeneration, mCharacter, mType, mForegroundColor, mBackgroundColor, mOuterColor, mBottomHalfColor,
+                mHasBackgroundGradient, (int) Math.round(mXOffset * scale), (int) Math.round(mYOffset * scale),
+                mFontSizeMultiplier, width, height);
+    }
+
+    /**
+     * @param buckets may be null when size buckets are off
+     * @return the key a rendering of this glyph is cached under: this key at its bucket's height,
+     *         or this key itself without buckets
+     */
+    public GlyphKey bucketed(SizeBuckets buckets) {
+        return buckets == null ? this : scaledTo(buckets.bucket(mHeight));
+    }
+
+    private int computeHashCode() {
+        int result = hash(mFontKey);
+        result = 31 * result + mFontGeneration;
+        result = 31 * result + hash(mCharacter);
+        result = 31 * result + hash(mType);
+        result = 31 * result + hash(mForegroundColor);
+        result = 31 * result + hash(mBackgroundColor);
+        result = 31 * result + hash(mOuterColor);
+        result = 31 * result + hash(mBottomHalfColor);
+        result = 31 * result + (mHasBackgroundGradient ? 1 : 0);
+        result = 31 * result + mXOffset;
+        result = 31 * result + mYOffset;
+        long multiplierBits = Double.doubleToLongBits(mFontSizeMultiplier);
+        result = 31 * result + (int) (multiplierBits ^ (multiplierBits >>> 32));
+        result = 31 * result + mWidth;
+        result = 31 * result + mHeight;
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GlyphKey)) return false;
+        GlyphKey other = (GlyphKey) o;
+        return mHashCode == other.mHashCode && mFontGeneration == other.mFontGeneration && mWidth == other.mWidth
+                && mHeight == other.mHeight && mXOffset == other.mXOffset && mYOffset == other.mYOffset && mHasBackgroundGradient == other.mHasBackgroundGradient
+                && Double.compare(mFontSizeMultiplier, other.mFontSizeMultiplier) == 0 && mType == other.mType
+                && equal(mFontKey, other.mFontKey) && equal(mCharacter, other.mCharacter)
+                && equal(mForegroundColor, other.mForegroundColor) && equal(mBackgroundColor, other.mBackgroundColor)
+                && equal(mOuterColor, other.mOuterColor) && equal(mBottomHalfColor, other.mBottomHalfColor);
+    }
+
+    @Override
+    public String toString() {
+        return "GlyphKey[" + mFontKey + "," + mCharacter + "," + mType + "," + mWidth + "x" + mHeight + "]";
+    }
+
+    private static int hash(Object o) {
+        return o == null ? 0 : o.hashCode();
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.finalhack.fontview;
+
+/**
+ * The math for centering a glyph inside a FontView. This is plain Java with no Android
+ * dependencies, so layout can be computed, cached and measured anywhere, including on a plain JVM.
+ * <p>
+ * The static methods work on primitives and never allocate, which is what the draw path uses. The
+ * {@link Input}/{@link Result} pair wraps the same math for callers that want to pass layouts
+ * around or cache them.
+ */
+public final class GlyphLayout {
+
+    private GlyphLayout() {
+    }
+
+    /**
+     * Where to start drawing the glyph on the x-axis
+     *
+     * @param midX the horizontal center of the view
+     * @param glyphWidth the measured width of the glyph
+     * @param xOffset the user's fine tuning
+     * @return the x to pass to drawText
+     */
+    public static int glyphX(int midX, float glyphWidth, int xOffset) {
+        int width = (int) glyphWidth;
+
+        // The width differential will be the starting x for drawing the glyph
+        // This will be the center of the view offset by half of the glyph width
+        return midX - (width / 2) + xOffset;
+    }
+
+    /**
+     * Where to put the glyph's baseline on the y-axis
+     *
+     * @param midY the vertical center of the view
+     * @param fontTop the font's top metric (negative, above the baseline)
+     * @param fontBottom the font's bottom metric (positive, below the baseline)
+     * @param yOffset the user's fine tuning
+     * @return the y to pass to drawText
+     */
+    public static int glyphY(int midY, float fontTop, float fontBottom, int yOffset) {
+        // Save some intermediate data for reuse
+        double absGlyphTop = Math.abs(fontTop);
+        double absGlyphBottom = Math.abs(fontBottom);
+        double glyphHeight = absGlyphTop + absGlyphBottom;
+
+        // Calculate the total glyph height (character above baseline + character below baseline)
+        // and get it's midpoint
+        // Use this midpoint to offset the center of the view we're drawing in
+        int heightDifferential = (int) (midY + ((glyphHeight / 2)));
+
+        // By default, center the part of the glyph that is above the baseline
+        // Move the glyph down such that the glyph part that is above the baseline is centered
+        heightDifferential *= (1.0 - (absGlyphBottom / absGlyphTop));
+
+        return heightDifferential + yOffset;
+    }
+
+    /**
+     * Lay out a glyph
+     *
+     * @param input
+     * @return where to draw the glyph
+     */
+    public static Result layout(Input input) {
+        int x = glyphX(input.width / 2, input.glyphWidth, input.xOffset);
+        int y = glyphY(input.height / 2, input.fontTop, input.fontBottom, input.yOffset);
+        return new Result(x, y);
+    }
+
+    /**
+     * Everything the layout depends on
+     */
+    public static final class Input {
+        public final int width;
+        public final int height;
+        public final float glyphWidth;
+        public final float fontTop;
+        public final float fontBottom;
+        public final int xOffset;
+        public final int yOffset;
+
+        public Input(int width, int height, float glyphWidth, float fontTop, float fontBottom, int xOffset, int yOffset) {
+            this.width = width;
+            this.height = height;
+            this.glyphWidth = glyphWidth;
+            this.fontTop = fontTop;
+            this.fontBottom = fontBottom;
+            this.xOffset = xOffset;
+            this.yOffset = yOffset;
+        }
+    }
+
+    /**
+     * Where to draw a glyph
+     */
+    public static final class Result {
+        public final int x;
+        public final int y;
+
+        public Result(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Result)) return false;
+            Result other = (Result) o;
+            return x == other.x && y == other.y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+
+        @Override
+        public String toString() {
+            return "GlyphLayout.Result[" + x + "," + y + "]";
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.finalhack.fontview;
+
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Typeface;
+
+/**
+ * Glyph outlines, extracted once per font and character at {@link #REFERENCE_TEXT_SIZE} and drawn
+ * at any size through a scale. Views showing the same glyph at different sizes share one
+ * extraction instead of each rasterizing text at its own size. Bounded by the number of outlines
+ * held. Shared by all FontViews once enabled with {@link FontView#enableOutlineCache(int)}.
+ * <p>
+ * The reference size is larger than most glyphs are drawn, so outlines are almost always scaled
+ * down, which keeps them sharp where hardware acceleration rasterizes paths before scaling.
+ */
+public class GlyphPathCache extends BoundedLruCache<GlyphPathCache.Key, Path> {
+
+    // The text size outlines are extracted at
+    public static final float REFERENCE_TEXT_SIZE = 256;
+
+    /**
+     * A font and the text drawn with it. Fonts are shared through the TypefaceRegistry, so a font
+     * is a single Typeface and compares by identity; a reloaded font gets new outlines.
+     */
+    public static final class Key {
+        private final Typeface mTypeface;
+        private final String mText;
+
+        public Key(Typeface typeface, String text) {
+            mTypeface = typeface;
+            mText = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mTypeface == other.mTypeface && mText.equals(other.mText);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mTypeface) + mText.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "GlyphPathCache.Key[" + mTypeface + "," + mText + "]";
+        }
+    }
+
+    // Only used to extract outlines, under its own lock, since atlases are built off the main
+    // thread
+    private final Paint mExtractPaint = new Paint();
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxOutlines the most outlines to hold at once
+     */
+    public GlyphPathCache(int maxOutlines) {
+        super(maxOutlines);
+        mExtractPaint.setTextSize(REFERENCE_TEXT_SIZE);
+    }
+
+    /**
+     * Get the outline of text in typeface, extracting it on a miss. The outline is at
+     * {@link #REFERENCE_TEXT_SIZE} with its baseline origin at 0, 0; scale it by
+     * textSize / REFERENCE_TEXT_SIZE and translate it to where drawText would have drawn.
+     * Outlines are shared, so don't change them.
+     *
+     * @param typeface
+     * @param text
+     * @return the outline
+     */
+    public Path getOutline(Typeface typeface, String text) {
+        Key key = new Key(typeface, text);
+        Path outline = get(key);
+        if (FontViewMetrics.sEnabled) FontViewMetrics.recordLookup(FontViewMetrics.CACHE_OUTLINE, outline != null);
+        if (outline != null) return outline;
+
+        outline = new Path();
+        synchronized (mExtractPaint) {
+            mExtractPaint.setTypeface(typeface);
+            mExtractPaint.getTextPath(text, 0, text.length(), 0, 0, outline);
+        }
+        // Two threads missing at once both extract; the outlines are identical
+        put(key, outline);
+        return outline;
+    }
+
+}
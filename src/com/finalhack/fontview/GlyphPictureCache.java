@@ -0,0 +1,45 @@
+package com.finalhack.fontview;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.os.Build;
+
+/**
+ * Recorded drawing commands for styled glyphs, one Picture per {@link GlyphKey}. Views with the
+ * same style, character and size replay one recording instead of each setting up paints and
+ * issuing the shape and text calls again, and unlike the render cache the result stays vector, so
+ * no pixel memory is held. Bounded by the number of recordings. Shared by all FontViews once
+ * enabled with {@link FontView#enablePictureCache(int)}.
+ * <p>
+ * Hardware accelerated canvases can only replay pictures from Marshmallow on; before that, views
+ * on them draw normally.
+ */
+public class GlyphPictureCache extends BoundedLruCache<GlyphKey, Picture> {
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxPictures the most recordings to hold at once
+     */
+    public GlyphPictureCache(int maxPictures) {
+        super(maxPictures);
+    }
+
+    /**
+     * @param canvas
+     * @return true if pictures can be drawn onto canvas
+     */
+    public static boolean canReplay(Canvas canvas) {
+        // 23 is Marshmallow, whose VERSION_CODES constant postdates the SDK we build against
+        if (Build.VERSION.SDK_INT >= 23) return true;
+        // There's no hardware acceleration before Honeycomb
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !isHardwareAccelerated(canvas);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean isHardwareAccelerated(Canvas canvas) {
+        return canvas.isHardwareAccelerated();
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.finalhack.fontview;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+
+/**
+ * Draws a styled glyph (shapes, colors and character) as described by a {@link GlyphKey}. This is
+ * what a FontView draws, pulled out of the view so glyphs can also be rendered off screen, e.g.
+ * into an atlas on a worker thread.
+ * <p>
+ * A renderer reuses its paints between glyphs, so it must only be used by one thread at a time.
+ */
+public class GlyphRenderer {
+
+    private static final int HALF_CIRCLE_SWEEP_DISTANCE = 180;
+    private static final int HALF_CIRCLE_TOP_START = 180;
+    private static final int HALF_CIRCLE_BOTTOM_START = 0;
+    private static final int TOP = 0;
+    private static final int LEFT = 0;
+
+    // Use a divisibility offset because if the radius is odd, or rounded odd, there will be a
+    // non-drawn line between the two circle halves.
+    private static final int DIVISIBILITY_OFFSET = 2;
+
+    // What changed since the last glyph was prepared. Anything not flagged is reused as is.
+    // Colors, typeface or text size
+    public static final int DIRTY_PAINT = 1;
+    // The gradient's colors or extent
+    public static final int DIRTY_SHADER = 1 << 1;
+    // Where the glyph goes: size, offsets, character or anything that changes the font metrics
+    public static final int DIRTY_LAYOUT = 1 << 2;
+    public static final int DIRTY_ALL = DIRTY_PAINT | DIRTY_SHADER | DIRTY_LAYOUT;
+
+    // Color and drawing resources
+    private final Paint mForegroundPaint = new Paint();
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mBackgroundGradientPaint = new Paint();
+    private final Paint mBottomHalfPaint = new Paint();
+
+    // Reused for every glyph to avoid excessive allocation
+    private final Rect mRect = new Rect();
+    private final RectF mArcRect = new RectF();
+    private final Paint.FontMetrics mMetrics = new Paint.FontMetrics();
+    private final Matrix mOutlineMatrix = new Matrix();
+
+    // The glyph the paints and layout are currently set up for
+    private GlyphKey mKey;
+    private Typeface mTypeface;
+    private String mCharacter;
+    private int mX;
+    private int mY;
+    // The shared outline of mCharacter and the cache it came from. Null until first drawn.
+    private Path mOutline;
+    private GlyphPathCache mOutlineCache;
+
+    /**
+     * Standard constructor.
+     */
+    public GlyphRenderer() {
+        mForegroundPaint.setAntiAlias(true);
+        mBackgroundPaint.setAntiAlias(true);
+        mBottomHalfPaint.setAntiAlias(true);
+        mBackgroundGradientPaint.setDither(false);
+    }
+
+    /**
+     * Set up and draw a glyph in one go, into the key's width and height starting at the canvas
+     * origin. Callers drawing several glyphs onto one canvas should translate and clip to each
+     * glyph's cell first.
+     *
+     * @param canvas
+     * @param key what to draw
+     * @param typeface the font to draw with. Null draws with the default font.
+     */
+    public void render(Canvas canvas, GlyphKey key, Typeface typeface) {
+        prepare(key, typeface, DIRTY_ALL);
+        draw(canvas);
+    }
+
+    /**
+     * Get ready to draw a glyph, only recomputing what the dirty flags say has changed since the
+     * last glyph. Drawing the same glyph again with nothing dirty allocates nothing.
+     *
+     * @param key what to draw
+     * @param typeface the font to draw with. Null draws with the default font.
+     * @param dirty DIRTY_* flags for what differs from the previously prepared key
+     */
+    public void prepare(GlyphKey key, Typeface typeface, int dirty) {
+        // Nothing to reuse yet, or a different font: everything derived from the font is stale
+        if (mKey == null) dirty = DIRTY_ALL;
+        if (typeface != mTypeface) dirty |= DIRTY_PAINT;
+        // The font metrics come from the paint, so the layout depends on it
+        if ((dirty & DIRTY_PAINT) != 0) dirty |= DIRTY_LAYOUT;
+
+        mKey = key;
+        mTypeface = typeface;
+
+        Integer backgroundColor = key.getBackgroundColor();
+        Integer bottomHalfColor = key.getBottomHalfColor();
+
+        if ((dirty & DIRTY_PAINT) != 0) {
+            // Setup our glyph color. Try to maximize the glyph size within the region, taking
+            // into account user modification.
+            Integer foregroundColor = key.getForegroundColor();
+            mForegroundPaint.setTextSize((int) (key.getHeight() * key.getFontSizeMultiplier()));
+            mForegroundPaint.setColor(foregroundColor != null ? foregroundColor : Color.BLACK);
+            mForegroundPaint.setTypeface(typeface);
+            mForegroundPaint.getFontMetrics(mMetrics);
+
+            // Unset colors draw the way a fresh Paint would
+            mBackgroundPaint.setColor(backgroundColor != null ? backgroundColor : Color.BLACK);
+            mBottomHalfPaint.setColor(bottomHalfColor != null ? bottomHalfColor : Color.BLACK);
+        }
+
+        // Sometimes there is a gradient background. Shaders are immutable, so a new one is only
+        // built when its colors or extent change.
+        if ((dirty & DIRTY_SHADER) != 0 && key.hasBackgroundGradient() && backgroundColor != null && bottomHalfColor != null) {
+            int midX = key.getWidth() / 2;
+            mBackgroundGradientPaint.setShader(new LinearGradient(midX, TOP, midX, key.getHeight(), backgroundColor,
+                    bottomHalfColor, Shader.TileMode.REPEAT));
+        }
+
+        if ((dirty & DIRTY_LAYOUT) != 0) {
+            boolean measure = FontViewMetrics.sEnabled;
+            long startTime = measure ? FontViewMetrics.begin(FontViewMetrics.LAYOUT_TIME) : 0;
+
+            String character = key.getCharacter();
+            // Just in case no character was given...
+            mCharacter = character != null ? character : "";
+
+            // Center the glyph, allowing for a user specified x or y offset to fine tune how they
+            // want the glyphs displayed
+            mX = GlyphLayout.glyphX(key.getWidth() / 2, mForegroundPaint.measureText(mCharacter), key.getXOffset());
+            mY = GlyphLayout.glyphY(key.getHeight() / 2, mMetrics.top, mMetrics.bottom, key.getYOffset());
+            // The character or font may have changed
+            mOutline = null;
+
+            if (measure) FontViewMetrics.end(FontViewMetrics.LAYOUT_TIME, startTime);
+        }
+    }
+
+    /**
+     * Draw the glyph set up by the last {@link #prepare(GlyphKey, Typeface, int)}
+     *
+     * @param canvas
+     */
+    public void draw(Canvas canvas) {
+        GlyphKey key = mKey;
+        int width = key.getWidth();
+        int height = key.getHeight();
+        int midX = width / 2;
+        int midY = height / 2;
+
+        Integer backgroundColor = key.getBackgroundColor();
+        Integer outerColor = key.getOuterColor();
+        Integer bottomHalfColor = key.getBottomHalfColor();
+        boolean hasBackgroundGradient = key.hasBackgroundGradient();
+
+        // This takes a while to read through, but is optimized for running rather than reading
+
+        // Draw image type specific parts
+
+        // For squares...
+        if (key.getType() == FontView.ImageType.SQUARE) {
+            // Is the background a solid color?
+            if (bottomHalfColor == null) {
+                // Is there a background color?
+                if (backgroundColor != null) canvas.drawColor(backgroundColor);
+            }
+            // If the background is not a solid color...
+            else {
+                // Is it a gradient?
+                if (hasBackgroundGradient) {
+                    mRect.set(LEFT, TOP, width, height);
+                    canvas.drawRect(mRect, mBackgroundGradientPaint);
+                }
+                // Is it split (non-gradient)?
+                else {
+                    mRect.set(LEFT, TOP, width, midY);
+                    canvas.drawRect(mRect, mBackgroundPaint);
+                    mRect.set(LEFT, midY, width, height);
+                    canvas.drawRect(mRect, mBottomHalfPaint);
+                }
+            }
+        }
+
+        // Do the same for circles...
+        if (key.getType() == FontView.ImageType.CIRCLE) {
+            // Is there a color outside the circle?
+            if (outerColor != null) canvas.drawColor(outerColor);
+            // Is the background a solid color?
+            if (bottomHalfColor == null) {
+                // Is there a background color?
+                if (backgroundColor != null) canvas.drawCircle(midX, midY, midX, mBackgroundPaint);
+                // If the background is not a solid color...
+            } else {
+                // Is it a gradient?
+                if (hasBackgroundGradient) {
+                    canvas.drawCircle(midX, midY, midX, mBackgroundGradientPaint);
+                }
+                // Is it split(non-gradient)?
+                else {
+                    // Draw the circle's top half
+                    mArcRect.set(LEFT, TOP, width, height + DIVISIBILITY_OFFSET);
+                    canvas.drawArc(mArcRect, HALF_CIRCLE_TOP_START, HALF_CIRCLE_SWEEP_DISTANCE, true, mBackgroundPaint);
+
+                    // Draw the circle's bottom half
+                    mArcRect.set(LEFT, TOP, width, height);
+                    canvas.drawArc(mArcRect, HALF_CIRCLE_BOTTOM_START, HALF_CIRCLE_SWEEP_DISTANCE, true, mBottomHalfPaint);
+                }
+            }
+        }
+
+        // Draw the glyph
+        GlyphPathCache outlineCache = FontView.getOutlineCache();
+        if (outlineCache != null && mTypeface != null && mCharacter.length() > 0) drawOutline(canvas, outlineCache);
+        else canvas.drawText(mCharacter, mX, mY, mForegroundPaint);
+    }
+
+    /**
+     * Draw the glyph from its shared outline, scaled from the reference size to our text size and
+     * moved to where drawText would have put it
+     *
+     * @param canvas
+     * @param outlineCache
+     */
+    private void drawOutline(Canvas canvas, GlyphPathCache outlineCache) {
+        // Only look the outline up again when the glyph, the font or the cache changed
+        if (mOutline == null || mOutlineCache != outlineCache) {
+            mOutline = outlineCache.getOutline(mTypeface, mCharacter);
+            mOutlineCache = outlineCache;
+        }
+
+        float scale = mForegroundPaint.getTextSize() / GlyphPathCache.REFERENCE_TEXT_SIZE;
+        mOutlineMatrix.setScale(scale, scale);
+        mOutlineMatrix.postTranslate(mX, mY);
+        canvas.save();
+        canvas.concat(mOutlineMatrix);
+        canvas.drawPath(mOutline, mForegroundPaint);
+        canvas.restore();
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+
+import android.content.Context;
+
+import com.finalhack.fontview.FontView.ImageType;
+import com.finalhack.fontview.FontView.LocationType;
+
+/**
+ * Describes a styled glyph to render ahead of time with {@link FontView#warmUp}. Set it up the
+ * same way as the FontView that will show it, with the view's size in pixels, and the rendered
+ * image is exactly what that view would draw.
+ */
+public final class GlyphSpec {
+
+    private final LocationType mLocationType;
+    private final String mLocation;
+    private final File mFile;
+    private final String mCharacter;
+    private final ImageType mType;
+    private final int mWidth;
+    private final int mHeight;
+
+    private Integer mForegroundColor = null;
+    private Integer mBackgroundColor = null;
+    private Integer mOuterColor = null;
+    private Integer mBottomHalfColor = null;
+    private boolean mHasBackgroundGradient = false;
+    private int mXOffset;
+    private int mYOffset;
+    private double mFontSizeMultiplier = 1.0;
+    private String mFallbackCharacter;
+
+    private GlyphSpec(LocationType locationType, String location, File file, String character, ImageType type, int width, int height) {
+        mLocationType = locationType;
+        mLocation = location;
+        mFile = file;
+        mCharacter = character;
+        mType = type;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * A glyph from a font in the apk's assets folder
+     *
+     * @param assetLocation
+     * @param character
+     * @param type
+     * @param width of the view, in pixels
+     * @param height of the view, in pixels
+     * @return glyphSpec
+     */
+    public static GlyphSpec forAsset(String assetLocation, String character, ImageType type, int width, int height) {
+        return new GlyphSpec(LocationType.ASSET, assetLocation, null, character, type, width, height);
+    }
+
+    /**
+     * A glyph from a font on the file system
+     *
+     * @param fontFile
+     * @param character
+     * @param type
+     * @param width of the view, in pixels
+     * @param height of the view, in pixels
+     * @return glyphSpec
+     */
+    public static GlyphSpec forFile(File fontFile, String character, ImageType type, int width, int height) {
+        return new GlyphSpec(LocationType.FILE, null, fontFile, character, type, width, height);
+    }
+
+    /**
+     * A glyph from a font at a network location. The font is downloaded first if needed.
+     *
+     * @param networkLocation
+     * @param character
+     * @param type
+     * @param width of the view, in pixels
+     * @param height of the view, in pixels
+     * @return glyphSpec
+     */
+    public static GlyphSpec forUrl(String networkLocation, String character, ImageType type, int width, int height) {
+        return new GlyphSpec(LocationType.NETWORK, networkLocation, null, character, type, width, height);
+    }
+
+    /**
+     * A glyph from a font in a font pack
+     *
+     * @param packFile
+     * @param fontName
+     * @param character
+     * @param type
+     * @param width of the view, in pixels
+     * @param height of the view, in pixels
+     * @return glyphSpec
+     */
+    public static GlyphSpec forPack(File packFile, String fontName, String character, ImageType type, int width, int height) {
+        return new GlyphSpec(LocationType.PACK, fontName, packFile, character, type, width, height);
+    }
+
+    /**
+     * @see FontView#setXOffset(int)
+     */
+    public GlyphSpec setXOffset(int xOffset) {
+        mXOffset = xOffset;
+        return this;
+    }
+
+    /**
+     * @see FontView#setYOffset(int)
+     */
+    public GlyphSpec setYOffset(int yOffset) {
+        mYOffset = yOffset;
+        return this;
+    }
+
+    /**
+     * @see FontView#setFontSizeMultiplier(double)
+     */
+    public GlyphSpec setFontSizeMultiplier(double fontSizeMultiplier) {
+        mFontSizeMultiplier = fontSizeMultiplier;
+        return this;
+    }
+
+    /**
+     * @see FontView#addBackgroundColor(int)
+     */
+    public GlyphSpec addBackgroundColor(int backgroundColor) {
+        mBackgroundColor = backgroundColor;
+        return this;
+    }
+
+    /**
+     * @see FontView#addForegroundColor(int)
+     */
+    public GlyphSpec addForegroundColor(int foregroundColor) {
+        mForegroundColor = foregroundColor;
+        return this;
+    }
+
+    /**
+     * @see FontView#addOuterColor(int)
+     */
+    public GlyphSpec addOuterColor(int outerColor) {
+        mOuterColor = outerColor;
+        return this;
+    }
+
+    /**
+     * @see FontView#addBottomHalfColor(int)
+     */
+    public GlyphSpec addBottomHalfColor(int bottomHalfColor) {
+        mBottomHalfColor = bottomHalfColor;
+        return this;
+    }
+
+    /**
+     * @see FontView#setFallbackCharacter(String)
+     */
+    public GlyphSpec setFallbackCharacter(String fallbackCharacter) {
+        mFallbackCharacter = fallbackCharacter;
+        return this;
+    }
+
+    /**
+     * @see FontView#setBackgroundGradient(boolean)
+     */
+    public GlyphSpec setBackgroundGradient(boolean hasBackgroundGradient) {
+        mHasBackgroundGradient = hasBackgroundGradient;
+        return this;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @param applicationContext
+     * @return where this glyph's font comes from
+     */
+    /* package */FontSource toFontSource(Context applicationContext) {
+        switch (mLocationType) {
+            case FILE:
+                return FontSource.forFile(applicationContext, mFile);
+            case NETWORK:
+                return FontSource.forUrl(applicationContext, mLocation);
+            case PACK:
+                return FontSource.forPack(applicationContext, mFile, mLocation);
+            default:
+                return FontSource.forAsset(applicationContext, mLocation);
+        }
+    }
+
+    /**
+     * Build the key a FontView set up like this spec would draw under
+     *
+     * @param fontKey
+     * @param fontGeneration
+     * @param coverage the font's coverage, or null if unknown
+     * @return key
+     */
+    /* package */GlyphKey toGlyphKey(String fontKey, int fontGeneration, GlyphCoverage coverage) {
+        EntityResolver resolver = EntityResolver.getInstance();
+        String character = FontView.resolveDrawCharacter(resolver.resolve(mCharacter), resolver.resolveCodePoint(mCharacter),
+                mFallbackCharacter, coverage);
+        if (character == null) character = "";
+        return new GlyphKey(fontKey, fontGeneration, character, mType, mForegroundColor, mBackgroundColor, mOuterColor,
+                mBottomHalfColor, mHasBackgroundGradient, mXOffset, mYOffset, mFontSizeMultiplier, mWidth, mHeight);
+    }
+
+}
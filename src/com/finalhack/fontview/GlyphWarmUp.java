@@ -0,0 +1,389 @@
+package com.finalhack.fontview;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * A batch of glyphs being rendered ahead of time, started with {@link FontView#warmUp}. Each
+ * glyph's font is downloaded and decoded if needed, then the glyph is rendered into the shared
+ * render cache, so the first draw of it on screen is a single bitmap draw.
+ * <p>
+ * The batch is worked through a few glyphs at a time at prefetch priority. Each few glyphs go back
+ * through the font workers' queue, so fonts for views that are already on screen get the next
+ * free worker rather than waiting for the whole batch. Fonts that haven't been downloaded are
+ * fetched through the {@link FontWaiterRegistry} like a view's, rather than by a worker waiting on
+ * the network, and their glyphs are rendered once they arrive. Use this handle to follow progress,
+ * wait for the batch, or cancel it when the screen it was meant for isn't coming after all.
+ */
+public class GlyphWarmUp {
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    // How many glyphs a worker renders before handing its thread back to the queue
+    private static final int CHUNK_SIZE = 4;
+
+    /**
+     * Told when a warm up is over. Called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param warmUp finished, or cancelled (see {@link GlyphWarmUp#isCancelled()}), including
+         *            when the font workers were too busy to take the rest of it
+         */
+        void onWarmUpFinished(GlyphWarmUp warmUp);
+    }
+
+    private final Context mApplicationContext;
+    private final GlyphSpec[] mSpecs;
+    private final Listener mListener;
+
+    // Workers take the next spec from here until they run out
+    private final AtomicInteger mNextSpec = new AtomicInteger();
+    // Specs whose font has arrived since they were put aside. Workers take these first.
+    private final ConcurrentLinkedQueue<GlyphSpec> mRetries = new ConcurrentLinkedQueue<GlyphSpec>();
+    // Specs put aside until their font downloads, by url. Each url counts as a worker until then.
+    private final HashMap<String, ArrayList<GlyphSpec>> mDeferred = new HashMap<String, ArrayList<GlyphSpec>>();
+    // Urls we've already waited for once, guarded by mDeferred. A font still missing after that
+    // couldn't be fetched, and isn't waited for again.
+    private final HashSet<String> mFetchedUrls = new HashSet<String>();
+
+    // Renderers reuse their paints, so each font worker thread keeps one for every batch
+    private static final ThreadLocal<GlyphRenderer> RENDERERS = new ThreadLocal<GlyphRenderer>() {
+        @Override
+        protected GlyphRenderer initialValue() {
+            return new GlyphRenderer();
+        }
+    };
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+    private final AtomicInteger mRenderedCount = new AtomicInteger();
+    // Workers queued or running. Each is replaced by a new one after every chunk.
+    private final List<Worker> mWorkers = new ArrayList<Worker>();
+    // Workers that haven't finished yet, and fonts being waited for. The batch is done when the
+    // last one leaves.
+    private final AtomicInteger mRemainingWorkers;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private volatile boolean mCancelled;
+
+    private GlyphWarmUp(Context applicationContext, Collection<GlyphSpec> specs, Listener listener, int workerCount) {
+        mApplicationContext = applicationContext;
+        mSpecs = specs.toArray(new GlyphSpec[specs.size()]);
+        mListener = listener;
+        mRemainingWorkers = new AtomicInteger(workerCount);
+    }
+
+    /**
+     * Start warming up a batch of glyphs
+     *
+     * @param applicationContext
+     * @param specs
+     * @param listener may be null
+     * @return the handle for the batch
+     */
+    /* package */static GlyphWarmUp start(Context applicationContext, Collection<GlyphSpec> specs, Listener listener) {
+        // No point in more workers than chunks, or than there are threads to run them
+        int chunkCount = (specs.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int workerCount = Math.min(chunkCount, FontExecutor.DEFAULT_THREAD_COUNT);
+        GlyphWarmUp warmUp = new GlyphWarmUp(applicationContext, specs, listener, workerCount);
+
+        if (workerCount == 0) warmUp.finish();
+        for (int i = 0; i < workerCount; i++)
+            warmUp.submitWorker();
+        return warmUp;
+    }
+
+    /**
+     * @return how many glyphs are in the batch
+     */
+    public int getTotalCount() {
+        return mSpecs.length;
+    }
+
+    /**
+     * @return how many glyphs have been dealt with so far, including ones that were already
+     *         cached or couldn't be rendered
+     */
+    public int getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return how many glyphs were actually rendered into the render cache
+     */
+    public int getRenderedCount() {
+        return mRenderedCount.get();
+    }
+
+    /**
+     * @return true once the batch has finished or been cancelled. A batch is cancelled when the
+     *         font workers' queue is too full to take the rest of it, as well as by
+     *         {@link #cancel()}.
+     */
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Stop warming up. Glyphs already rendered stay cached.
+     */
+    public void cancel() {
+        mCancelled = true;
+        List<Worker> workers;
+        synchronized (mWorkers) {
+            workers = new ArrayList<Worker>(mWorkers);
+        }
+        for (Worker worker : workers)
+            worker.cancel();
+
+        // Stop waiting for fonts. The downloads carry on, like any prefetch.
+        int deferred;
+        synchronized (mDeferred) {
+            deferred = mDeferred.size();
+            mDeferred.clear();
+        }
+        for (int i = 0; i < deferred; i++)
+            release();
+    }
+
+    /**
+     * Queue a worker for the next chunk of the batch
+     */
+    private void submitWorker() {
+        Worker worker = new Worker();
+        synchronized (mWorkers) {
+            mWorkers.add(worker);
+        }
+        FontExecutor.getInstance().execute(worker, FontTask.PRIORITY_PREFETCH);
+        // Cancelled while we were queuing it, after cancel() had looked for workers
+        if (mCancelled) worker.cancel();
+    }
+
+    /**
+     * Wait for the batch. Don't call this on the main thread.
+     *
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException {
+        mDone.await();
+    }
+
+    /**
+     * Wait for the batch, up to a limit. Don't call this on the main thread.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if the batch is done
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    /**
+     * Load the font for a glyph, and render the glyph if it isn't cached yet
+     *
+     * @param spec
+     * @param renderer this worker's renderer
+     * @return false if the glyph was put aside until its font downloads
+     */
+    private boolean warmUp(GlyphSpec spec, GlyphRenderer renderer) {
+        FontSource fontSource = spec.toFontSource(mApplicationContext);
+        if (fontSource.needsDownload()) return !defer(spec, fontSource.getLocation());
+
+        TypefaceRegistry registry = TypefaceRegistry.getInstance();
+        // Read first, so a font replaced while we load it is cached under the old generation
+        int fontGeneration = registry.getGeneration(fontSource.getKey());
+        Typeface typeface = registry.getOrLoad(fontSource.getKey(), fontSource);
+
+        // Without a render cache there's nowhere to keep the image, but the font is decoded now
+        GlyphBitmapCache renderCache = FontView.getRenderCache();
+        if (typeface == null || renderCache == null || spec.getWidth() <= 0 || spec.getHeight() <= 0) return true;
+
+        // Cached the way a view will look it up, at its bucket's size if size buckets are on
+        GlyphKey key = spec.toGlyphKey(fontSource.getKey(), fontGeneration, registry.getCoverage(fontSource.getKey())).bucketed(
+                FontView.getSizeBuckets());
+        if (renderCache.get(key) != null) return true;
+
+        Bitmap bitmap = Bitmap.createBitmap(key.getWidth(), key.getHeight(), Bitmap.Config.ARGB_8888);
+        renderer.render(new Canvas(bitmap), key, typeface);
+        renderCache.put(key, bitmap);
+        mRenderedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Put a glyph aside until its font has downloaded. The download goes through the
+     * FontWaiterRegistry, joining any a view has started, so no worker sits blocked on the
+     * network. Each font being waited for counts as a worker, so the batch isn't done before it
+     * arrives.
+     *
+     * @param spec
+     * @param url
+     * @return false if the font couldn't be fetched last time, so the glyph is skipped
+     */
+    private boolean defer(GlyphSpec spec, final String url) {
+        synchronized (mDeferred) {
+            ArrayList<GlyphSpec> specs = mDeferred.get(url);
+            if (specs != null) {
+                specs.add(spec);
+                return true;
+            }
+            if (!mFetchedUrls.add(url)) return false;
+            specs = new ArrayList<GlyphSpec>();
+            specs.add(spec);
+            mDeferred.put(url, specs);
+            mRemainingWorkers.incrementAndGet();
+        }
+        FontWaiterRegistry.getInstance().prefetch(mApplicationContext, url, new Runnable() {
+            @Override
+            public void run() {
+                onFontArrived(url);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * A font we put glyphs aside for has been fetched (or given up on). Called on the main
+     * thread.
+     *
+     * @param url
+     */
+    private void onFontArrived(String url) {
+        ArrayList<GlyphSpec> specs;
+        synchronized (mDeferred) {
+            specs = mDeferred.remove(url);
+        }
+        // Cancelled, and already accounted for
+        if (specs == null) return;
+
+        // The font's place in the batch passes to a worker that renders its glyphs
+        mRetries.addAll(specs);
+        submitWorker();
+    }
+
+    /**
+     * @return the next glyph to warm up, or null if there are none left for now
+     */
+    private GlyphSpec nextSpec() {
+        GlyphSpec spec = mRetries.poll();
+        if (spec != null) return spec;
+        int index = mNextSpec.getAndIncrement();
+        return index < mSpecs.length ? mSpecs[index] : null;
+    }
+
+    /**
+     * One fewer worker (or font being waited for). The last one out finishes the batch.
+     */
+    private void release() {
+        if (mRemainingWorkers.decrementAndGet() == 0) finish();
+    }
+
+    /**
+     * Release anyone waiting, and tell the listener
+     */
+    private void finish() {
+        mDone.countDown();
+        if (mListener == null) return;
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onWarmUpFinished(GlyphWarmUp.this);
+            }
+        });
+    }
+
+    /**
+     * Works through the batch on a font worker thread, alongside the other workers
+     */
+    private class Worker extends FontTask {
+        // Each worker leaves exactly once, whether it ran or was cancelled before it could
+        private final AtomicBoolean mLeft = new AtomicBoolean();
+        private volatile boolean mStarted;
+
+        @Override
+        protected void doInBackground() {
+            mStarted = true;
+            boolean more = false;
+            try {
+                GlyphRenderer renderer = RENDERERS.get();
+                for (int i = 0; i < CHUNK_SIZE && !mCancelled; i++) {
+                    GlyphSpec spec = nextSpec();
+                    if (spec == null) break;
+                    boolean completed = true;
+                    try {
+                        completed = warmUp(spec, renderer);
+                    } catch (OutOfMemoryError e) {
+                        // Skip this one. The view will render it when it's shown.
+                        if (FontView.mDebugEnabled) e.printStackTrace();
+                    } catch (Exception e) {
+                        if (FontView.mDebugEnabled) e.printStackTrace();
+                    }
+                    if (completed) mCompletedCount.incrementAndGet();
+                }
+                more = !mCancelled && (!mRetries.isEmpty() || mNextSpec.get() < mSpecs.length);
+            } finally {
+                // Go to the back of the queue for the next chunk, so anything more important
+                // that arrived meanwhile runs first. The successor counts as us, so the batch
+                // isn't finished in between.
+                if (more) {
+                    replaced();
+                    submitWorker();
+                } else {
+                    leave();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            // Dropped from a full queue, or the batch was cancelled. If we never got to run,
+            // nobody else will account for us.
+            boolean cancelled = super.cancel();
+            if (cancelled && !mStarted) {
+                // Dropped, so the glyphs we'd have taken won't be warmed up. Don't let the batch
+                // look complete.
+                mCancelled = true;
+                leave();
+            }
+            return cancelled;
+        }
+
+        /**
+         * Hand our place in the batch on to a successor
+         */
+        private void replaced() {
+            if (!mLeft.compareAndSet(false, true)) return;
+            synchronized (mWorkers) {
+                mWorkers.remove(this);
+            }
+        }
+
+        private void leave() {
+            if (!mLeft.compareAndSet(false, true)) return;
+            synchronized (mWorkers) {
+                mWorkers.remove(this);
+            }
+            release();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.finalhack.fontview;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, such as durations in nanoseconds or sizes in
+ * bytes. Values are counted in buckets: exact below 8, then 8 buckets per power of two, so any
+ * value is known to within 12.5%. Recording is a handful of atomic adds and never allocates.
+ */
+public final class Histogram {
+
+    // Values below this are counted exactly
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Enough buckets for any positive long
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mBuckets.incrementAndGet(bucketFor(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value))
+            max = mMax.get();
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getSum() {
+        return mSum.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @return the mean of all recorded values, or 0 if there are none
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value that percentile of recorded values are at or below, rounded up to the top
+     *         of its bucket. 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mBuckets.get(bucket);
+            // Never report more than the largest value actually seen
+            if (seen >= rank) return Math.min(upperBound(bucket), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Forget everything recorded. Values recorded while resetting may or may not be kept.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+            mBuckets.set(bucket, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram[count=" + getCount() + ",mean=" + getMean() + ",p50=" + getPercentile(50) + ",p90=" + getPercentile(90)
+                + ",p99=" + getPercentile(99) + ",max=" + getMax() + "]";
+    }
+
+    /* package */static int bucketFor(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        // The bits just below the leading one pick the sub bucket
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /* package */static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) return bucket;
+        int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket & (SUB_BUCKET_COUNT - 1);
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lowerBound = (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.finalhack.fontview;
+
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Collects FontViews that need refreshing (their font just arrived, or they were just set up and
+ * their parents may still be laying out) and refreshes them all in one pass on the next frame.
+ * Everything happens on the main thread: there are no thread hops and no sleeps, and however many
+ * views ask during a frame, only one callback is posted.
+ * <p>
+ * Frames come from the Choreographer where it exists (API 16+). Older devices fall back to a
+ * main thread Handler post, which runs right after the current layout and draw pass.
+ */
+public final class RenderScheduler {
+
+    private static final RenderScheduler INSTANCE = new RenderScheduler();
+
+    // Views waiting for the next frame. A second list is swapped in while the first is refreshed,
+    // so views scheduled during the pass wait for the frame after and nothing is allocated.
+    private ArrayList<FontView> mWaiting = new ArrayList<FontView>();
+    private ArrayList<FontView> mRefreshing = new ArrayList<FontView>();
+    private boolean mFramePosted;
+
+    private final FrameSource mFrameSource;
+
+    private RenderScheduler() {
+        Runnable onFrame = new Runnable() {
+            @Override
+            public void run() {
+                doFrame();
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) mFrameSource = new ChoreographerFrameSource(onFrame);
+        else mFrameSource = new HandlerFrameSource(onFrame);
+    }
+
+    /**
+     * @return the scheduler shared by all FontViews
+     */
+    public static RenderScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Refresh a view on the next frame. Scheduling a view that's already waiting does nothing.
+     * Main thread only.
+     *
+     * @param view
+     */
+    public void schedule(FontView view) {
+        if (view.mRefreshScheduled) return;
+        view.mRefreshScheduled = true;
+        mWaiting.add(view);
+
+        if (!mFramePosted) {
+            mFramePosted = true;
+            mFrameSource.postFrame();
+        }
+    }
+
+    /**
+     * Take a view back out, e.g. because it left the window. It's skipped when the frame comes.
+     * Main thread only.
+     *
+     * @param view
+     */
+    public void unschedule(FontView view) {
+        view.mRefreshScheduled = false;
+    }
+
+    /**
+     * @return how many views are waiting for the next frame
+     */
+    public int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+    /**
+     * Refresh everyone who asked since the last frame
+     */
+    private void doFrame() {
+        mFramePosted = false;
+
+        ArrayList<FontView> refreshing = mWaiting;
+        mWaiting = mRefreshing;
+        mRefreshing = refreshing;
+
+        for (int i = 0; i < refreshing.size(); i++) {
+            FontView view = refreshing.get(i);
+            // Unscheduled since it asked
+            if (!view.mRefreshScheduled) continue;
+            view.mRefreshScheduled = false;
+            try {
+                view.internalUpdate();
+            } catch (Exception e) {
+                // One bad view shouldn't stop the rest from refreshing
+                e.printStackTrace();
+            }
+        }
+        // Don't hold on to views past their frame
+        refreshing.clear();
+    }
+
+    /**
+     * Something that calls back once on the next frame
+     */
+    private interface FrameSource {
+        void postFrame();
+    }
+
+    /**
+     * Lines refreshes up with the display's vsync. Only loaded on API 16+.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerFrameSource implements FrameSource, Choreographer.FrameCallback {
+        private final Runnable mOnFrame;
+
+        ChoreographerFrameSource(Runnable onFrame) {
+            mOnFrame = onFrame;
+        }
+
+        @Override
+        public void postFrame() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mOnFrame.run();
+        }
+    }
+
+    /**
+     * Runs refreshes after whatever the main thread is doing now, layout and drawing included
+     */
+    private static class HandlerFrameSource implements FrameSource {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final Runnable mOnFrame;
+
+        HandlerFrameSource(Runnable onFrame) {
+            mOnFrame = onFrame;
+        }
+
+        @Override
+        public void postFrame() {
+            mHandler.post(mOnFrame);
+        }
+    }
+
+}
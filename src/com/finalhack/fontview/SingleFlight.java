@@ -0,0 +1,76 @@
+package com.finalhack.fontview;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent work by key. The first caller for a key does the work; anyone who asks for
+ * the same key while it's running waits for, and shares, that one result. Work for different keys
+ * runs in parallel.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * The work to do for a key
+     *
+     * @param <V> result type
+     */
+    public interface Work<V> {
+        V run() throws Exception;
+    }
+
+    // A single in progress piece of work and everything needed to hand its outcome to waiters
+    private static class Call<V> {
+        final CountDownLatch done = new CountDownLatch(1);
+        V result;
+        Exception error;
+    }
+
+    private final ConcurrentHashMap<K, Call<V>> mInFlight = new ConcurrentHashMap<K, Call<V>>();
+
+    /**
+     * Do the work for key, or join the caller already doing it
+     *
+     * @param key
+     * @param work
+     * @return the shared result
+     * @throws Exception whatever the work threw, rethrown to every caller
+     */
+    public V execute(K key, Work<V> work) throws Exception {
+        Call<V> call = new Call<V>();
+        Call<V> existing = mInFlight.putIfAbsent(key, call);
+
+        // Someone is already on it. Wait for them.
+        if (existing != null) {
+            existing.done.await();
+            if (existing.error != null) throw existing.error;
+            return existing.result;
+        }
+
+        try {
+            call.result = work.run();
+        } catch (Exception e) {
+            call.error = e;
+        } finally {
+            // Leave the table before releasing waiters so a later caller starts fresh work rather
+            // than joining one that's already finished
+            mInFlight.remove(key, call);
+            call.done.countDown();
+        }
+
+        if (call.error != null) throw call.error;
+        return call.result;
+    }
+
+    /**
+     * @param key
+     * @return true if work for key is running right now
+     */
+    public boolean isInFlight(K key) {
+        return mInFlight.containsKey(key);
+    }
+
+}
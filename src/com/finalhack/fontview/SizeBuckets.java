@@ -0,0 +1,49 @@
+package com.finalhack.fontview;
+
+/**
+ * Rounds view sizes up to a small set of render sizes, so views of nearly the same size can share
+ * one cached rendering, scaled down as it's drawn. Buckets grow geometrically by 1 + maxError, so
+ * no view is drawn from a rendering more than maxError larger than itself, whatever its size.
+ * <p>
+ * Plain Java with no Android dependencies; bucketing never allocates.
+ */
+public final class SizeBuckets {
+
+    // Keeps sizes that land exactly on a bucket from being pushed into the next one by rounding
+    private static final double EPSILON = 1e-9;
+
+    private final float mMaxError;
+    private final double mLogStep;
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxError how much larger than a view its rendering may be, e.g. 0.1 for 10%. Larger
+     *            values share more renderings, but scale them down further.
+     */
+    public SizeBuckets(float maxError) {
+        if (!(maxError > 0) || maxError > 1) throw new IllegalArgumentException("maxError must be in (0, 1]");
+        mMaxError = maxError;
+        mLogStep = Math.log(1 + maxError);
+    }
+
+    public float getMaxError() {
+        return mMaxError;
+    }
+
+    /**
+     * @param size a view dimension, in pixels
+     * @return the size to render at: the smallest bucket at or above size, or size itself when the
+     *         nearest bucket would be off by more than the max error (which only happens for sizes
+     *         of a few pixels, where buckets are less than a pixel apart)
+     */
+    public int bucket(int size) {
+        if (size <= 1) return size;
+
+        double step = Math.ceil(Math.log(size) / mLogStep - EPSILON);
+        int bucket = (int) Math.ceil(Math.exp(step * mLogStep) - EPSILON);
+        if (bucket < size || bucket > size * (1.0 + mMaxError)) return size;
+        return bucket;
+    }
+
+}
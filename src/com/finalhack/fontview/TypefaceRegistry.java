@@ -0,0 +1,298 @@
+package com.finalhack.fontview;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Typeface;
+
+/**
+ * A process wide cache of decoded fonts. Each font is keyed by where it came from (an asset path,
+ * a file path or a hashed url) so several fonts can be used at the same time, and a font is only
+ * ever decoded once no matter how many views ask for it.
+ * <p>
+ * Lookups of an already decoded font never lock. Only the first request for a font synchronizes,
+ * and only with other requests for that same font.
+ */
+public class TypefaceRegistry {
+
+    // Keep enough fonts around for a handful of icon sets without pinning every font ever used
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static final String KEY_PREFIX_ASSET = "asset:";
+    private static final String KEY_PREFIX_FILE = "file:";
+    private static final String KEY_PREFIX_URL = "url:";
+    private static final String KEY_PREFIX_PACK = "pack:";
+
+    private static final TypefaceRegistry INSTANCE = new TypefaceRegistry(DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Decodes a font when the registry doesn't have it yet
+     */
+    public interface Loader {
+        /**
+         * @return the decoded font, or null if it isn't available (yet)
+         * @throws Exception if the font data is bad
+         */
+        Typeface load() throws Exception;
+
+        /**
+         * Called right after a successful load, so coverage is cached along with the font
+         *
+         * @return the code points the font has glyphs for, or null if unknown
+         */
+        GlyphCoverage loadCoverage();
+    }
+
+    // A single registry slot. The typeface is volatile so that readers never need a lock.
+    private static class Entry {
+        volatile Typeface typeface;
+        volatile GlyphCoverage coverage;
+        volatile long lastAccess;
+    }
+
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<String, Entry>();
+    // How many times each font's bytes have changed, by key. Missing means 0.
+    private final ConcurrentHashMap<String, Integer> mGenerations = new ConcurrentHashMap<String, Integer>();
+    // A logical clock is cheaper than asking the system for the time on every lookup
+    private final AtomicLong mClock = new AtomicLong();
+    private volatile int mMaxEntries;
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxEntries the most fonts to keep decoded at once
+     */
+    public TypefaceRegistry(int maxEntries) {
+        setMaxEntries(maxEntries);
+    }
+
+    /**
+     * @return the registry shared by all FontViews
+     */
+    public static TypefaceRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Build a registry key for a font in the apk's assets folder
+     *
+     * @param assetLocation
+     * @return key
+     */
+    public static String keyForAsset(String assetLocation) {
+        return KEY_PREFIX_ASSET + assetLocation;
+    }
+
+    /**
+     * Build a registry key for a font on the file system
+     *
+     * @param fontFile
+     * @return key
+     */
+    public static String keyForFile(File fontFile) {
+        return KEY_PREFIX_FILE + fontFile.getAbsolutePath();
+    }
+
+    /**
+     * Build a registry key for a font in a font pack
+     *
+     * @param packFile
+     * @param fontName
+     * @return key
+     */
+    public static String keyForPack(File packFile, String fontName) {
+        return KEY_PREFIX_PACK + packFile.getAbsolutePath() + "#" + fontName;
+    }
+
+    /**
+     * Build a registry key for a font pulled from a network location
+     *
+     * @param url
+     * @return key
+     */
+    public static String keyForUrl(String url) {
+        return KEY_PREFIX_URL + FontView.hashUrlToFilename(url);
+    }
+
+    /**
+     * Look up an already decoded font. Never blocks.
+     *
+     * @param key
+     * @return the font, or null if it hasn't been decoded
+     */
+    public Typeface get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return null;
+        Typeface typeface = entry.typeface;
+        if (typeface != null) entry.lastAccess = mClock.incrementAndGet();
+        return typeface;
+    }
+
+    /**
+     * Look up a font, decoding it with the given loader if no one has yet. Concurrent requests for
+     * the same key wait for a single decode rather than each decoding their own copy.
+     *
+     * @param key
+     * @param loader
+     * @return the font, or null if the loader couldn't produce one
+     */
+    public Typeface getOrLoad(String key, Loader loader) {
+        // Fast path: already decoded
+        Typeface typeface = get(key);
+        if (FontViewMetrics.sEnabled) FontViewMetrics.recordLookup(FontViewMetrics.CACHE_TYPEFACE, typeface != null);
+        if (typeface != null) return typeface;
+
+        while (true) {
+            Entry entry = new Entry();
+            Entry existing = mEntries.putIfAbsent(key, entry);
+            if (existing != null) entry = existing;
+
+            // Only callers asking for this same font ever wait here
+            synchronized (entry) {
+                typeface = entry.typeface;
+                if (typeface == null) {
+                    // The load we waited for failed and dropped this entry, or it was replaced.
+                    // Start over, so whatever we decode is registered.
+                    if (mEntries.get(key) != entry) continue;
+
+                    boolean measure = FontViewMetrics.sEnabled;
+                    long startTime = measure ? FontViewMetrics.begin(FontViewMetrics.DECODE_TIME) : 0;
+                    try {
+                        typeface = loader.load();
+                    } catch (Exception e) {
+                        if (FontView.mDebugEnabled) e.printStackTrace();
+                    } finally {
+                        if (measure) FontViewMetrics.end(FontViewMetrics.DECODE_TIME, startTime);
+                    }
+
+                    // Don't remember failures. The font may show up later (e.g. a finished download)
+                    if (typeface == null) {
+                        mEntries.remove(key, entry);
+                        return null;
+                    }
+
+                    // Coverage is a nice to have. If we can't read it, glyphs are assumed present.
+                    try {
+                        entry.coverage = loader.loadCoverage();
+                    } catch (Exception e) {
+                        if (FontView.mDebugEnabled) e.printStackTrace();
+                    }
+                    entry.typeface = typeface;
+                }
+                entry.lastAccess = mClock.incrementAndGet();
+            }
+
+            trimToSize();
+            return typeface;
+        }
+    }
+
+    /**
+     * Look up which code points an already decoded font has glyphs for. Never blocks.
+     *
+     * @param key
+     * @return the coverage, or null if the font hasn't been decoded or its coverage is unknown
+     */
+    public GlyphCoverage getCoverage(String key) {
+        Entry entry = mEntries.get(key);
+        return entry == null ? null : entry.coverage;
+    }
+
+    /**
+     * Add an already decoded font, replacing anything stored under the same key
+     *
+     * @param key
+     * @param typeface
+     */
+    public void put(String key, Typeface typeface) {
+        Entry entry = new Entry();
+        entry.typeface = typeface;
+        entry.lastAccess = mClock.incrementAndGet();
+        mEntries.put(key, entry);
+        trimToSize();
+    }
+
+    /**
+     * Drop a font. Views already drawing with it keep their reference, but the next lookup will
+     * decode it again.
+     *
+     * @param key
+     * @return true if the font was in the registry
+     */
+    public boolean evict(String key) {
+        return mEntries.remove(key) != null;
+    }
+
+    /**
+     * @param key
+     * @return the font's generation, which changes whenever its bytes do. Anything made from the
+     *         font under another generation is out of date. Never blocks or allocates.
+     */
+    public int getGeneration(String key) {
+        Integer generation = mGenerations.get(key);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Drop a font whose bytes have changed (e.g. a newer download) and move it to a new
+     * generation, so views holding the old Typeface know to load it again
+     *
+     * @param key
+     */
+    public void invalidate(String key) {
+        evict(key);
+        synchronized (mGenerations) {
+            mGenerations.put(key, getGeneration(key) + 1);
+        }
+    }
+
+    /**
+     * Drop every font
+     */
+    public void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return the number of fonts currently held
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Change how many fonts are kept decoded at once. Extra fonts are dropped least recently used
+     * first.
+     *
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        mMaxEntries = maxEntries;
+        trimToSize();
+    }
+
+    /**
+     * Drop the least recently used fonts until we're within bounds. The registry is small so a
+     * linear scan is cheaper than keeping a second ordered structure in sync.
+     */
+    private void trimToSize() {
+        while (mEntries.size() > mMaxEntries) {
+            String oldestKey = null;
+            Entry oldestEntry = null;
+            for (Map.Entry<String, Entry> candidate : mEntries.entrySet()) {
+                Entry entry = candidate.getValue();
+                // Skip fonts that are still being decoded
+                if (entry.typeface == null) continue;
+                if (oldestEntry == null || entry.lastAccess < oldestEntry.lastAccess) {
+                    oldestKey = candidate.getKey();
+                    oldestEntry = entry;
+                }
+            }
+            if (oldestKey == null || !mEntries.remove(oldestKey, oldestEntry)) return;
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+package com.finalhack.fontview;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Unpacks WOFF 1.0 fonts into the plain TrueType/OpenType (sfnt) files Typeface can load. The
+ * WOFF is read front to back exactly once: the sfnt header and table directory are written from
+ * the WOFF's table directory (which carries each table's original size and checksum), then each
+ * table is inflated straight into the output as it's reached. Only a couple of small buffers are
+ * held, whatever the size of the font.
+ * <p>
+ * The WOFF metadata and private data blocks aren't needed to draw, so they're skipped.
+ */
+public final class WoffDecoder {
+
+    private static final int SIGNATURE = 0x774F4646; // 'wOFF'
+
+    private static final int HEADER_SIZE = 44;
+    private static final int DIRECTORY_ENTRY_SIZE = 20;
+    private static final int SFNT_HEADER_SIZE = 12;
+    private static final int SFNT_DIRECTORY_ENTRY_SIZE = 16;
+
+    // Fonts can't have more tables than this and still be loadable
+    private static final int MAX_TABLES = 4096;
+
+    private static final int BUFFER_SIZE = FontDownloader.BUFFER_SIZE;
+
+    private WoffDecoder() {
+    }
+
+    // One entry of the WOFF table directory
+    private static class Table {
+        int tag;
+        long offset;
+        long compressedLength;
+        long length;
+        int checksum;
+        // Where the table goes in the sfnt we write
+        long sfntOffset;
+    }
+
+    // Tables in the order their data appears in the WOFF
+    private static final Comparator<Table> BY_OFFSET = new Comparator<Table>() {
+        @Override
+        public int compare(Table a, Table b) {
+            return a.offset < b.offset ? -1 : a.offset > b.offset ? 1 : 0;
+        }
+    };
+
+    // Tables in the order the sfnt table directory requires
+    private static final Comparator<Table> BY_TAG = new Comparator<Table>() {
+        @Override
+        public int compare(Table a, Table b) {
+            // Tags compare as unsigned
+            return compareUnsigned(a.tag, b.tag);
+        }
+    };
+
+    /**
+     * @param file
+     * @return true if file starts with the WOFF signature
+     */
+    public static boolean isWoff(File file) {
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new FileInputStream(file));
+            return inputStream.readInt() == SIGNATURE;
+        } catch (IOException e) {
+            // Missing or too short to be anything
+            return false;
+        } finally {
+            FontDownloader.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Unpack a WOFF file into an sfnt file
+     *
+     * @param woff
+     * @param sfnt overwritten
+     * @throws IOException if woff isn't a WOFF we can read, or on a read or write error
+     */
+    public static void decode(File woff, File sfnt) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(woff), BUFFER_SIZE);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(sfnt), BUFFER_SIZE);
+            try {
+                decode(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Unpack a WOFF stream into an sfnt stream. Neither stream is closed.
+     *
+     * @param woff
+     * @param sfnt
+     * @throws IOException if woff isn't a WOFF we can read, or on a read or write error
+     */
+    public static void decode(InputStream woff, OutputStream sfnt) throws IOException {
+        DataInputStream input = new DataInputStream(woff);
+        DataOutputStream output = new DataOutputStream(sfnt);
+
+        // Header. Only what we need to rebuild the sfnt is kept.
+        if (input.readInt() != SIGNATURE) throw new IOException("Not a WOFF font");
+        int flavor = input.readInt();
+        input.readInt(); // length
+        int tableCount = input.readUnsignedShort();
+        if (input.readUnsignedShort() != 0) throw new IOException("Bad WOFF header");
+        if (tableCount == 0 || tableCount > MAX_TABLES) throw new IOException("Bad WOFF table count " + tableCount);
+        // The sfnt size, version and metadata/private block locations aren't needed
+        skipFully(input, HEADER_SIZE - 16);
+
+        Table[] tables = new Table[tableCount];
+        for (int i = 0; i < tableCount; i++) {
+            Table table = new Table();
+            table.tag = input.readInt();
+            table.offset = input.readInt() & 0xFFFFFFFFL;
+            table.compressedLength = input.readInt() & 0xFFFFFFFFL;
+            table.length = input.readInt() & 0xFFFFFFFFL;
+            table.checksum = input.readInt();
+            if (table.compressedLength > table.length) throw new IOException("Bad WOFF table length");
+            tables[i] = table;
+        }
+        long position = HEADER_SIZE + (long) tableCount * DIRECTORY_ENTRY_SIZE;
+
+        // Lay the sfnt's tables out in the order we'll read them, so each can be written as soon
+        // as it's inflated
+        Table[] byOffset = tables.clone();
+        Arrays.sort(byOffset, BY_OFFSET);
+        long sfntOffset = SFNT_HEADER_SIZE + (long) tableCount * SFNT_DIRECTORY_ENTRY_SIZE;
+        for (Table table : byOffset) {
+            table.sfntOffset = sfntOffset;
+            sfntOffset += padded(table.length);
+        }
+
+        writeSfntHeader(output, flavor, tableCount);
+        Table[] byTag = tables.clone();
+        Arrays.sort(byTag, BY_TAG);
+        for (Table table : byTag) {
+            output.writeInt(table.tag);
+            output.writeInt(table.checksum);
+            output.writeInt((int) table.sfntOffset);
+            output.writeInt((int) table.length);
+        }
+
+        byte[] inputBuffer = new byte[BUFFER_SIZE];
+        byte[] outputBuffer = new byte[BUFFER_SIZE];
+        Inflater inflater = new Inflater();
+        try {
+            for (Table table : byOffset) {
+                // Tables can't overlap, and anything between them is padding
+                if (table.offset < position) throw new IOException("Overlapping WOFF tables");
+                skipFully(input, table.offset - position);
+                position = table.offset + table.compressedLength;
+
+                if (table.compressedLength == table.length) {
+                    // Stored as is, because compressing didn't help
+                    copy(input, output, table.length, inputBuffer);
+                } else {
+                    inflater.reset();
+                    inflate(input, output, table, inflater, inputBuffer, outputBuffer);
+                }
+
+                // Tables start on four byte boundaries
+                for (long i = table.length; i < padded(table.length); i++)
+                    output.write(0);
+            }
+        } finally {
+            inflater.end();
+        }
+        output.flush();
+    }
+
+    /**
+     * Write the sfnt offset table, including the binary search hints derived from the table count
+     */
+    private static void writeSfntHeader(DataOutputStream output, int flavor, int tableCount) throws IOException {
+        int entrySelector = 31 - Integer.numberOfLeadingZeros(tableCount);
+        int searchRange = (1 << entrySelector) * SFNT_DIRECTORY_ENTRY_SIZE;
+        output.writeInt(flavor);
+        output.writeShort(tableCount);
+        output.writeShort(searchRange);
+        output.writeShort(entrySelector);
+        output.writeShort(tableCount * SFNT_DIRECTORY_ENTRY_SIZE - searchRange);
+    }
+
+    /**
+     * Inflate one zlib compressed table, checking it comes out exactly the size the directory says
+     */
+    private static void inflate(InputStream input, OutputStream output, Table table, Inflater inflater, byte[] inputBuffer,
+            byte[] outputBuffer) throws IOException {
+        long remainingInput = table.compressedLength;
+        long written = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (remainingInput == 0) break;
+                    int read = input.read(inputBuffer, 0, (int) Math.min(inputBuffer.length, remainingInput));
+                    if (read < 0) throw new IOException("WOFF ended early");
+                    remainingInput -= read;
+                    inflater.setInput(inputBuffer, 0, read);
+                }
+
+                int inflated = inflater.inflate(outputBuffer);
+                if (inflated == 0 && inflater.needsDictionary()) throw new IOException("Bad WOFF table data");
+                written += inflated;
+                // Don't write past the space the table was given
+                if (written > table.length) throw new IOException("WOFF table larger than expected");
+                output.write(outputBuffer, 0, inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad WOFF table data: " + e.getMessage());
+        }
+
+        if (written != table.length) throw new IOException("WOFF table smaller than expected");
+        // Step over anything the compressed stream didn't use, so the next table lines up
+        skipFully(input, remainingInput);
+    }
+
+    private static void copy(InputStream input, OutputStream output, long length, byte[] buffer) throws IOException {
+        while (length > 0) {
+            int read = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) throw new IOException("WOFF ended early");
+            output.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    private static void skipFully(InputStream input, long count) throws IOException {
+        while (count > 0) {
+            long skipped = input.skip(count);
+            if (skipped <= 0) {
+                // skip() may give up without reaching the end, so make sure with a read
+                if (input.read() < 0) throw new IOException("WOFF ended early");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static long padded(long length) {
+        return (length + 3) & ~3L;
+    }
+
+    private static int compareUnsigned(int a, int b) {
+        a += Integer.MIN_VALUE;
+        b += Integer.MIN_VALUE;
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+}